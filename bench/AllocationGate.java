@@ -0,0 +1,195 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * AllocationGate checks that a tick allocates nothing once the simulation
+ * has warmed up, and exits with status 1 if any scenario allocates more
+ * than its budget, so that it can guard a build against regressions.
+ * <br><br>
+ * Every scenario is the configuration in "config.properties" with a few
+ * parameters changed, writing its csv or binary files into a temporary
+ * folder. It runs a number of warmup ticks, so that the code is compiled
+ * and every buffer has reached its size, and then the measured ticks, over
+ * which the bytes allocated by the thread calling {@link Simulation#step()} and by
+ * the output thread are read from the allocation counters of
+ * {@link com.sun.management.ThreadMXBean}.
+ * <br><br>
+ * The budget of the sequential scenarios is a byte per tick, which lets a
+ * one-off allocation of the JVM pass over a long measurement but not one
+ * per tick. With PARALLELISM above 1 the ForkJoinPool allocates a small
+ * node whenever the tick waits for a stripe a worker has taken, which the
+ * budget of the parallel scenarios allows for. The console and the live
+ * stream are left out, as formatting text for them allocates.
+ * <br><br>
+ * Usage, from the root of the project:
+ * <pre>
+ *   javac -d out src/*.java bench/*.java
+ *   java -cp out AllocationGate [-w 3000] [-t 5000] [-p NAME=value ...]
+ * </pre>
+ * where -w and -t are the numbers of warmup and measured ticks and every
+ * -p overrides a parameter of all scenarios.
+ */
+public class AllocationGate {
+
+    // the bytes per tick allowed on each thread
+    private static final double SEQUENTIAL_BUDGET = 1;
+    private static final double PARALLEL_BUDGET = 256;
+
+    private static final Map<String, String[]> SCENARIOS = new LinkedHashMap<>();
+    static {
+        SCENARIOS.put("sequential", new String[] {"EXTENSION=False"});
+        SCENARIOS.put("sequential-ext", new String[] {"EXTENSION=True"});
+        SCENARIOS.put("synchronous-ext", new String[] {"EXTENSION=True",
+                "SYNCHRONOUS_DEMOGRAPHY=True"});
+        SCENARIOS.put("both-formats", new String[] {"EXTENSION=True",
+                "OUTPUT_FORMAT=BOTH"});
+        SCENARIOS.put("world-map", new String[] {"EXTENSION=True",
+                "WORLD_MAP=True"});
+        SCENARIOS.put("mean-field", new String[] {"EXTENSION=True",
+                "MODE=CONSTANT", "ENGINE=MEAN_FIELD"});
+        SCENARIOS.put("parallel-ext", new String[] {"EXTENSION=True",
+                "PARALLELISM=4"});
+        SCENARIOS.put("parallel-synchronous-ext", new String[] {"EXTENSION=True",
+                "SYNCHRONOUS_DEMOGRAPHY=True", "PARALLELISM=4"});
+    }
+
+    private static final com.sun.management.ThreadMXBean THREADS =
+            (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) throws Exception {
+        int warmup = 3000;
+        int ticks = 5000;
+        List<String> overrides = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-w") && i + 1 < args.length) {
+                warmup = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-t") && i + 1 < args.length) {
+                ticks = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-p") && i + 1 < args.length) {
+                overrides.add(args[++i]);
+            } else {
+                System.err.println("Usage: java AllocationGate [-w warmup] [-t ticks]"
+                        + " [-p NAME=value ...]");
+                System.exit(1);
+            }
+        }
+        if (!THREADS.isThreadAllocatedMemorySupported()) {
+            System.err.println("This JVM does not count the bytes allocated by a thread");
+            System.exit(1);
+        }
+        THREADS.setThreadAllocatedMemoryEnabled(true);
+
+        File folder = Files.createTempDirectory("daisyworld-allocation").toFile();
+        boolean passed = true;
+        System.out.printf(Locale.ROOT, "%-28s %14s %14s %10s%n",
+                "scenario", "sim B/tick", "output B/tick", "budget");
+        try {
+            for (Map.Entry<String, String[]> scenario : SCENARIOS.entrySet()) {
+                Params params = Params.configParams()
+                        .with("CONSOLE_OUTPUT", ConsoleOutput.QUIET.name())
+                        .with("STEADY_STATE", SteadyStateAction.OFF.name())
+                        .with("STREAM_PORT", "0")
+                        .with("TILES", "0")
+                        .with("FRAME_INTERVAL", "0")
+                        .with("CHECKPOINT_TICK", "0")
+                        .with("RESTORE_FROM", "")
+                        .with("WORLD_MAP", "False")
+                        .with("ITERATION_LIMIT", String.valueOf(warmup + ticks))
+                        .with("OUTPUT_NAME",
+                                new File(folder, scenario.getKey()).getPath());
+                for (String parameter : scenario.getValue()) {
+                    params = with(params, parameter);
+                }
+                for (String parameter : overrides) {
+                    params = with(params, parameter);
+                }
+                double budget = params.PARALLELISM > 1
+                        ? PARALLEL_BUDGET : SEQUENTIAL_BUDGET;
+
+                double[] allocated = measure(params, warmup, ticks);
+                boolean within = allocated[0] <= budget && allocated[1] <= budget;
+                passed &= within;
+                System.out.printf(Locale.ROOT, "%-28s %14.2f %14.2f %10.0f%s%n",
+                        scenario.getKey(), allocated[0], allocated[1], budget,
+                        within ? "" : "  OVER BUDGET");
+            }
+        } finally {
+            File[] files = folder.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            folder.delete();
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    private static Params with(Params params, String parameter) throws Exception {
+        String[] pair = parameter.split("=", 2);
+        return params.with(pair[0].trim(), pair[1].trim());
+    }
+
+    /**
+     * Run a scenario and measure the allocations of its ticks
+     * @return the bytes per measured tick allocated by the simulation thread
+     *         and by the output thread
+     */
+    private static double[] measure(Params params, int warmup, int ticks)
+            throws IOException {
+        List<RecordWriter> files = new ArrayList<>();
+        if (params.OUTPUT_FORMAT != OutputFormat.BINARY) {
+            files.add(new WriterCSV(WriterCSV.defaultFile(params), params.metrics()));
+        }
+        if (params.OUTPUT_FORMAT != OutputFormat.CSV) {
+            files.add(new WriterBinary(WriterBinary.defaultFile(params),
+                    params.describe(), params.metrics()));
+        }
+        OutputPipeline output = new OutputPipeline(files, ConsoleOutput.QUIET,
+                params.OUTPUT_BUFFER, params.metrics());
+        Simulation sim = Simulation.create(params, output);
+        sim.setup();
+        try {
+            for (int i = 0; i < warmup; i++) {
+                sim.step();
+            }
+            output.awaitWritten();
+            long simThread = Thread.currentThread().getId();
+            long outputThread = outputThread();
+            long simStart = THREADS.getThreadAllocatedBytes(simThread);
+            long outputStart = THREADS.getThreadAllocatedBytes(outputThread);
+            for (int i = 0; i < ticks; i++) {
+                sim.step();
+            }
+            output.awaitWritten();
+            long simEnd = THREADS.getThreadAllocatedBytes(simThread);
+            long outputEnd = THREADS.getThreadAllocatedBytes(outputThread);
+            return new double[] {(double) (simEnd - simStart) / ticks,
+                    (double) (outputEnd - outputStart) / ticks};
+        } finally {
+            sim.finish();
+            output.close();
+        }
+    }
+
+    /**
+     * @return the id of the thread of the open output pipeline
+     */
+    private static long outputThread() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            if (thread.getName().equals("daisyworld-output") && thread.isAlive()) {
+                return thread.getId();
+            }
+        }
+        throw new IllegalStateException("The output thread is not running");
+    }
+}
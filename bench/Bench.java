@@ -0,0 +1,415 @@
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.LongSupplier;
+import java.util.regex.Pattern;
+
+/**
+ * Bench holds the benchmarks of the phases of a tick, and measures their
+ * average time over a range of world sizes with and without the extension
+ * with a simple timer, writing the results as JSON.
+ * <br><br>
+ * It is the quick check that runs with nothing but javac. For results to
+ * track across versions use the JMH module of the Maven build, whose
+ * benchmarks, jmh/src/main/java/daisyworld/jmh/TickBenchmark.java, run
+ * these same bodies through {@link #prepare(Map)}:
+ * <pre>
+ *   mvn -B package
+ *   java -jar jmh/target/benchmarks.jar -rf json -rff jmh.json
+ * </pre>
+ * <br>
+ * Every benchmark is measured in a fresh simulation of the configuration in
+ * "config.properties", with the swept parameters changed, that has run a
+ * few ticks so that the temperatures are realistic. Each measurement
+ * iteration calls the benchmark for a fixed time and reports the average
+ * time of one call. The results give the mean, minimum, maximum and
+ * standard deviation of the iterations; they have no confidence interval,
+ * which a few iterations cannot support.
+ * <br><br>
+ * Usage, from the root of the project:
+ * <pre>
+ *   javac -d out src/*.java bench/*.java
+ *   java -cp out Bench [-wi 3] [-i 5] [-r 1000] [-rf bench.json]
+ *                      [-p X_SIZE=29,128,512,2048] [-p EXTENSION=false,true]
+ *                      [benchmark regex]
+ * </pre>
+ * where -wi and -i are the numbers of warmup and measurement iterations and
+ * -r the length of an iteration in milliseconds. X_SIZE also sets Y_SIZE.
+ * To compare the temperature kernels, compile and run with the vector one:
+ * <pre>
+ *   javac --add-modules jdk.incubator.vector -d out src/*.java vector/*.java bench/*.java
+ *   java --add-modules jdk.incubator.vector -cp out Bench -p KERNEL=SCALAR,VECTOR diffuse
+ * </pre>
+ */
+public class Bench {
+
+    /**
+     * One benchmark, called repeatedly on a prepared simulation
+     */
+    interface Benchmark {
+        /**
+         * Get ready to run on a simulation, before the first call
+         * @param sim the simulation
+         */
+        default void prepare(Sim sim) {
+        }
+
+        /**
+         * @param sim the simulation
+         * @return a value depending on the work done, so that it is not
+         *         optimised away
+         */
+        long run(Sim sim) throws IOException;
+    }
+
+    // the sink of the benchmark results
+    static volatile long blackhole;
+
+    // the ticks a simulation runs before it is measured
+    private static final int SETUP_TICKS = 20;
+
+    // the csv writer of the report benchmark
+    private static WriterCSV reportWriter;
+    private static Metrics reportMetrics;
+
+    private static final Map<String, Benchmark> BENCHMARKS = new LinkedHashMap<>();
+    static {
+        BENCHMARKS.put("tick", sim -> {
+            sim.step();
+            return sim.tick;
+        });
+        BENCHMARKS.put("calculateTemperature", sim -> {
+            sim.world.calculateTemperature(0, sim.world.xSize);
+            return Double.doubleToRawLongBits(sim.world.temperature.get(0));
+        });
+        BENCHMARKS.put("diffuse", sim -> {
+            sim.world.diffuse(0, sim.world.xSize);
+            sim.world.swapTemperature();
+            return Double.doubleToRawLongBits(sim.world.temperature.get(0));
+        });
+        BENCHMARKS.put("checkSurvivability", sim -> {
+            World world = sim.world;
+            for (int cell = 0; cell < world.size; cell++) {
+                if (world.hasDaisy(cell)) {
+                    world.checkSurvivability(cell);
+                }
+            }
+            return world.population[World.EMPTY];
+        });
+        BENCHMARKS.put("sprout", new Benchmark() {
+            // the world before the first call, which every call starts from
+            // again so that the world does not fill up
+            private World start;
+
+            @Override
+            public void prepare(Sim sim) {
+                start = new World(sim.params, sim.world.random.copy());
+                start.copyStateFrom(sim.world);
+            }
+
+            @Override
+            public long run(Sim sim) {
+                World world = sim.world;
+                world.copyStateFrom(start);
+                for (int cell = 0; cell < world.size; cell++) {
+                    if (world.hasDaisy(cell)) {
+                        world.sprout(cell);
+                    }
+                }
+                return world.population[World.EMPTY];
+            }
+        });
+        BENCHMARKS.put("neighbors", sim -> {
+            World world = sim.world;
+            int[] neighbors = new int[8];
+            long sum = 0;
+            for (int cell = 0; cell < world.size; cell++) {
+                int count = world.neighborsOf(cell, neighbors);
+                sum += count + neighbors[count - 1];
+            }
+            return sum;
+        });
+        BENCHMARKS.put("report", sim -> {
+            double[] record = new double[reportMetrics.WIDTH];
+            sim.recordMetrics(record);
+            reportWriter.write(record, 0);
+            return Double.doubleToRawLongBits(record[reportMetrics.GLOBAL_TEMPERATURE]);
+        });
+    }
+
+    public static void main(String[] args) throws Exception {
+        int warmupIterations = 3;
+        int iterations = 5;
+        long iterationMillis = 1000;
+        String resultFile = "bench.json";
+        Pattern filter = Pattern.compile(".*");
+        Map<String, List<String>> sweep = new LinkedHashMap<>();
+        sweep.put("X_SIZE", Arrays.asList("29", "128", "512", "2048"));
+        sweep.put("EXTENSION", Arrays.asList("false", "true"));
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi": warmupIterations = Integer.parseInt(args[++i]); break;
+                case "-i": iterations = Integer.parseInt(args[++i]); break;
+                case "-r": iterationMillis = Long.parseLong(args[++i]); break;
+                case "-rf": resultFile = args[++i]; break;
+                case "-p":
+                    String[] parameter = args[++i].split("=", 2);
+                    sweep.put(parameter[0], Arrays.asList(parameter[1].split(",")));
+                    break;
+                default: filter = Pattern.compile(args[i]);
+            }
+        }
+        if (iterations < 2) {
+            throw new Exception("At least 2 measurement iterations are needed");
+        }
+
+        Params base = baseParams();
+        openReport(base);
+        List<Map<String, String>> points = new ArrayList<>();
+        addPoints(new ArrayList<>(sweep.keySet()), sweep, 0,
+                new LinkedHashMap<>(), points);
+
+        List<String> results = new ArrayList<>();
+        for (Map.Entry<String, Benchmark> benchmark : BENCHMARKS.entrySet()) {
+            if (!filter.matcher(benchmark.getKey()).find()) {
+                continue;
+            }
+            for (Map<String, String> point : points) {
+                Params params = pointParams(base, point);
+                System.out.println("# " + benchmark.getKey() + " " + point);
+                double[] scores = measure(params, benchmark.getValue(),
+                        warmupIterations, iterations, iterationMillis);
+                results.add(toJson(benchmark.getKey(), point, scores,
+                        warmupIterations, iterationMillis));
+            }
+        }
+        reportWriter.close();
+
+        try (Writer out = new FileWriter(resultFile)) {
+            out.write("[\n" + String.join(",\n", results) + "\n]\n");
+        }
+        System.out.println("Results written to " + resultFile);
+    }
+
+    private static Params baseParams() throws Exception {
+        return Params.configParams()
+                .with("CONSOLE_OUTPUT", ConsoleOutput.QUIET.name());
+    }
+
+    /**
+     * Open the csv file the report benchmark writes to, deleted on exit
+     */
+    private static void openReport(Params base) throws IOException {
+        File reportFile = File.createTempFile("daisyworld-bench", ".csv");
+        reportFile.deleteOnExit();
+        reportMetrics = base.metrics();
+        reportWriter = new WriterCSV(reportFile, reportMetrics);
+    }
+
+    /**
+     * @return the configuration of a point of the sweep, X_SIZE also
+     *         setting Y_SIZE
+     */
+    private static Params pointParams(Params base, Map<String, String> point)
+            throws Exception {
+        Params params = base;
+        for (Map.Entry<String, String> parameter : point.entrySet()) {
+            params = params.with(parameter.getKey(), parameter.getValue());
+            if (parameter.getKey().equals("X_SIZE")) {
+                params = params.with("Y_SIZE", parameter.getValue());
+            }
+        }
+        return params;
+    }
+
+    private static void addPoints(List<String> names,
+                                  Map<String, List<String>> sweep, int index,
+                                  Map<String, String> point,
+                                  List<Map<String, String>> points) {
+        if (index == names.size()) {
+            points.add(new LinkedHashMap<>(point));
+            return;
+        }
+        for (String value : sweep.get(names.get(index))) {
+            point.put(names.get(index), value);
+            addPoints(names, sweep, index + 1, point, points);
+        }
+    }
+
+    /**
+     * Start a simulation of a configuration and run the ticks before the
+     * measurement
+     * @return the simulation
+     */
+    private static Sim start(Params params, OutputPipeline output) throws IOException {
+        Sim sim = new Sim(params, output);
+        sim.setup();
+        for (int i = 0; i < SETUP_TICKS; i++) {
+            sim.step();
+        }
+        return sim;
+    }
+
+    /**
+     * Run the warmup and measurement iterations of one benchmark
+     * @return the average time of one call in every measurement iteration,
+     *         in microseconds
+     */
+    private static double[] measure(Params params, Benchmark benchmark,
+                                    int warmupIterations, int iterations,
+                                    long iterationMillis) throws IOException {
+        OutputPipeline output = new OutputPipeline(Collections.emptyList(),
+                ConsoleOutput.QUIET, params.OUTPUT_BUFFER, params.metrics());
+        Sim sim = start(params, output);
+        benchmark.prepare(sim);
+
+        double[] scores = new double[iterations];
+        for (int i = 0; i < warmupIterations + iterations; i++) {
+            long calls = 0;
+            long start = System.nanoTime();
+            long end = start + iterationMillis * 1_000_000;
+            long now;
+            do {
+                blackhole += benchmark.run(sim);
+                calls++;
+                now = System.nanoTime();
+            } while (now < end);
+            double score = (now - start) / 1000.0 / calls;
+            boolean warmup = i < warmupIterations;
+            System.out.printf(Locale.ROOT, "%s iteration %d: %.3f us/op%n",
+                    warmup ? "Warmup" : "Measurement",
+                    warmup ? i + 1 : i - warmupIterations + 1, score);
+            if (!warmup) {
+                scores[i - warmupIterations] = score;
+            }
+        }
+        sim.finish();
+        output.close();
+        return scores;
+    }
+
+    /**
+     * Prepare every benchmark on a fresh simulation, for harnesses outside
+     * the default package such as the JMH module, which cannot name the
+     * classes of the simulation. Each benchmark should be run on its own
+     * preparation, as they all change the same simulation.
+     *
+     * @param point the parameters changed from "config.properties", X_SIZE
+     *              also setting Y_SIZE
+     * @return every benchmark by name; the map is AutoCloseable, and closing
+     *         it stops the simulation
+     * @throws Exception if the configuration is invalid
+     */
+    public static Map<String, LongSupplier> prepare(Map<String, String> point)
+            throws Exception {
+        Params base = baseParams();
+        if (reportWriter == null) {
+            openReport(base);
+        }
+        Params params = pointParams(base, point);
+        OutputPipeline output = new OutputPipeline(Collections.emptyList(),
+                ConsoleOutput.QUIET, params.OUTPUT_BUFFER, params.metrics());
+        Sim sim = start(params, output);
+        Prepared prepared = new Prepared(sim, output);
+        for (Map.Entry<String, Benchmark> entry : BENCHMARKS.entrySet()) {
+            Benchmark benchmark = entry.getValue();
+            benchmark.prepare(sim);
+            prepared.put(entry.getKey(), () -> {
+                try {
+                    return benchmark.run(sim);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        }
+        return prepared;
+    }
+
+    /**
+     * The benchmarks prepared on a simulation, which closing stops
+     */
+    private static final class Prepared extends LinkedHashMap<String, LongSupplier>
+            implements AutoCloseable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Sim sim;
+        private final transient OutputPipeline output;
+
+        Prepared(Sim sim, OutputPipeline output) {
+            this.sim = sim;
+            this.output = output;
+        }
+
+        @Override
+        public void close() throws IOException {
+            sim.finish();
+            output.close();
+        }
+    }
+
+    /**
+     * Format one result as a JSON object
+     */
+    private static String toJson(String benchmark, Map<String, String> point,
+                                 double[] scores, int warmupIterations,
+                                 long iterationMillis) {
+        double mean = 0;
+        double min = Double.POSITIVE_INFINITY;
+        double max = Double.NEGATIVE_INFINITY;
+        for (double score : scores) {
+            mean += score;
+            min = Math.min(min, score);
+            max = Math.max(max, score);
+        }
+        mean /= scores.length;
+        double squares = 0;
+        for (double score : scores) {
+            squares += (score - mean) * (score - mean);
+        }
+        double deviation = Math.sqrt(squares / (scores.length - 1));
+
+        StringBuilder params = new StringBuilder();
+        for (Map.Entry<String, String> parameter : point.entrySet()) {
+            if (params.length() > 0) {
+                params.append(", ");
+            }
+            params.append('"').append(parameter.getKey()).append("\" : \"")
+                    .append(parameter.getValue()).append('"');
+        }
+        StringBuilder raw = new StringBuilder();
+        for (double score : scores) {
+            if (raw.length() > 0) {
+                raw.append(", ");
+            }
+            raw.append(score);
+        }
+        return String.format(Locale.ROOT, "  {\n"
+                        + "    \"benchmark\" : \"%s\",\n"
+                        + "    \"jdkVersion\" : \"%s\",\n"
+                        + "    \"warmupIterations\" : %d,\n"
+                        + "    \"measurementIterations\" : %d,\n"
+                        + "    \"iterationTime\" : \"%d ms\",\n"
+                        + "    \"params\" : { %s },\n"
+                        + "    \"unit\" : \"us/op\",\n"
+                        + "    \"mean\" : %s,\n"
+                        + "    \"min\" : %s,\n"
+                        + "    \"max\" : %s,\n"
+                        + "    \"stdev\" : %s,\n"
+                        + "    \"iterations\" : [ %s ]\n"
+                        + "  }",
+                benchmark, System.getProperty("java.version"), warmupIterations,
+                scores.length, iterationMillis, params, mean, min, max,
+                deviation, raw);
+    }
+}
@@ -0,0 +1,175 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * CheckpointCheck checks that simulations continued from a checkpoint run
+ * under their own configuration, and exits with status 1 if any check
+ * fails.
+ * <br><br>
+ * In both modes the configuration in "config.properties" is run to
+ * CHECK_TICK, saved, and read back once as {@link Sweep} does with
+ * RESTORE_FROM. From there:
+ * <ul>
+ *   <li>a clone under the same configuration writes exactly the records of
+ *   the uninterrupted run;</li>
+ *   <li>clones at a lower and a higher SOLAR_LUMINOSITY run at that
+ *   luminosity, write different records, and the brighter one is
+ *   warmer on its first tick.</li>
+ * </ul>
+ * Usage, from the root of the project:
+ * <pre>
+ *   javac -d out src/*.java bench/*.java
+ *   java -cp out CheckpointCheck
+ * </pre>
+ */
+public class CheckpointCheck {
+
+    // after the start of the rise of the default ramp
+    private static final int CHECK_TICK = 300;
+    private static final double LOW = 0.8;
+    private static final double HIGH = 1.2;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        Params base = Params.configParams()
+                .with("CONSOLE_OUTPUT", ConsoleOutput.QUIET.name())
+                .with("STEADY_STATE", SteadyStateAction.OFF.name())
+                .with("STREAM_PORT", "0")
+                .with("TILES", "0")
+                .with("FRAME_INTERVAL", "0")
+                .with("CHECKPOINT_TICK", "0")
+                .with("RESTORE_FROM", "")
+                .with("WORLD_MAP", "False")
+                .with("ENGINE", Engine.GRID.name())
+                .with("ITERATION_LIMIT", "1000");
+        File file = File.createTempFile("daisyworld", ".checkpoint");
+        try {
+            for (Mode mode : Mode.values()) {
+                check(base.with("MODE", mode.name()), file);
+            }
+        } finally {
+            file.delete();
+        }
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void check(Params params, File file) throws Exception {
+        Collector reference = new Collector(params);
+        OutputPipeline output = pipeline(params, reference);
+        Sim full = new Sim(params, output);
+        full.setup();
+        full.go();
+        output.close();
+
+        output = pipeline(params, new Collector(params));
+        Sim saved = new Sim(params, output);
+        saved.setup();
+        while (saved.tick <= CHECK_TICK) {
+            saved.step();
+        }
+        saved.saveCheckpoint(file);
+        saved.finish();
+        output.close();
+
+        Sim template = new Sim(params, null);
+        Checkpoint.read(file, template, params);
+
+        Collector continued = new Collector(params);
+        fork(template, params, continued);
+        expect(params, "a clone of the same configuration continues the run",
+                same(continued.records, reference.records.subList(CHECK_TICK,
+                        reference.records.size())));
+
+        Params low = params.with("SOLAR_LUMINOSITY", String.valueOf(LOW));
+        Params high = params.with("SOLAR_LUMINOSITY", String.valueOf(HIGH));
+        Collector dim = new Collector(params);
+        Collector bright = new Collector(params);
+        Sim dimSim = fork(template, low, dim);
+        Sim brightSim = fork(template, high, bright);
+        if (params.MODE.equals(Mode.CONSTANT.name())) {
+            expect(params, "clones run at their configured luminosity",
+                    dimSim.solarLuminosity == LOW
+                            && brightSim.solarLuminosity == HIGH);
+        }
+        expect(params, "clones of different luminosities differ",
+                !same(dim.records, bright.records));
+        int temperature = params.metrics().GLOBAL_TEMPERATURE;
+        expect(params, "the brighter clone is warmer on its first tick",
+                bright.records.get(0)[temperature]
+                        > dim.records.get(0)[temperature]);
+    }
+
+    /**
+     * Clone a simulation under a configuration and run it to the end
+     * @return the clone
+     */
+    private static Sim fork(Sim template, Params params, Collector collector)
+            throws IOException {
+        OutputPipeline output = pipeline(params, collector);
+        Sim sim = template.fork(params, output);
+        sim.go();
+        output.close();
+        return sim;
+    }
+
+    private static OutputPipeline pipeline(Params params, Collector collector) {
+        List<RecordWriter> files = new ArrayList<>();
+        files.add(collector);
+        return new OutputPipeline(files, ConsoleOutput.QUIET,
+                params.OUTPUT_BUFFER, params.metrics());
+    }
+
+    private static void expect(Params params, String check, boolean passed) {
+        System.out.printf(Locale.ROOT, "%-18s %-56s %s%n", params.MODE, check,
+                passed ? "ok" : "FAILED");
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    /**
+     * @return whether two lists of records hold the same values
+     */
+    private static boolean same(List<double[]> a, List<double[]> b) {
+        if (a.size() != b.size()) {
+            return false;
+        }
+        for (int i = 0; i < a.size(); i++) {
+            if (!Arrays.equals(a.get(i), b.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The records written to it, in order
+     */
+    private static final class Collector implements RecordWriter {
+
+        final List<double[]> records = new ArrayList<>();
+        private final int width;
+
+        Collector(Params params) {
+            width = params.metrics().WIDTH;
+        }
+
+        @Override
+        public void write(double[] record, int offset) {
+            records.add(Arrays.copyOfRange(record, offset, offset + width));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,381 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * DiffusionCheck checks the double-buffered diffusion of {@link World}
+ * against the semantics of NetLogo's diffuse and against the in-place
+ * diffusion it replaced, {@link World#diffuse(int)}, on the default 29x29
+ * configuration, and exits with status 1 if any check fails.
+ * <br><br>
+ * On a bounded and a wrapping 29x29 world with random temperatures:
+ * <ul>
+ *   <li>the step keeps the total temperature, as does the in-place
+ *   diffusion of every cell;</li>
+ *   <li>a single hot cell keeps half its temperature plus the leftover
+ *   share of every missing neighbor, 3/16 on an edge and 5/16 in a corner,
+ *   and each of its neighbors gets 1/16;</li>
+ *   <li>the step is the sum of the in-place diffusion of every cell alone,
+ *   so it is the in-place diffusion with every share computed from the
+ *   temperatures before the step, whatever the order.</li>
+ * </ul>
+ * Then the default configuration of config.properties (CONSTANT mode,
+ * 3000 ticks), spelled out below so that editing the file does not change
+ * it, is run with and without the extension, side by side with the
+ * in-place path:
+ * <ul>
+ *   <li>every tick of the run, the step is again compared with the in-place
+ *   diffusion of every cell alone, on the temperatures the run reached;</li>
+ *   <li>a run that diffuses in place, cell by cell in cell id order as the
+ *   simulation did before the double buffer, reaches the same steady state
+ *   over SEEDS seeds: the mean global temperature and populations of the
+ *   ticks after BURN_IN agree within TEMPERATURE_TOLERANCE degrees and
+ *   POPULATION_TOLERANCE of the patches. The records of the two do not
+ *   match tick by tick, as the visiting order of the in-place diffusion
+ *   moves every cell by a fraction of a degree and the first daisy that
+ *   sprouts differently sets them apart. Over any ten seeds the means of
+ *   the two differ by about 0.35 degrees without the extension and 0.25
+ *   with it, and their populations by at most 0.5% of the patches.</li>
+ * </ul>
+ * <br><br>
+ * Usage, from the root of the project:
+ * <pre>
+ *   javac -d out src/*.java bench/*.java
+ *   java -cp out DiffusionCheck
+ * </pre>
+ */
+public class DiffusionCheck {
+
+    // the default configuration of config.properties, 29x29 in CONSTANT mode
+    private static final String[] DEFAULTS = {
+            "X_SIZE=29", "Y_SIZE=29", "TORUS=False",
+            "ENGINE=GRID", "PARALLELISM=1", "SYNCHRONOUS_DEMOGRAPHY=False",
+            "KERNEL=SCALAR", "TILES=0", "INSTRUMENTATION=False",
+            "CONSOLE_OUTPUT=QUIET", "STREAM_PORT=0", "STEADY_STATE=OFF",
+            "FRAME_INTERVAL=0", "WORLD_MAP=False", "CHECKPOINT_TICK=0",
+            "RESTORE_FROM=", "SPECIES=WHITE,BLACK",
+            "START_WHITE_PERCENTAGE=0.2", "START_BLACK_PERCENTAGE=0.2",
+            "ALBEDO_OF_WHITES=0.75", "ALBEDO_OF_BLACKS=0.25",
+            "SOLAR_LUMINOSITY=1.0", "ALBEDO_OF_SURFACE=0.4",
+            "ITERATION_LIMIT=3000", "MODE=CONSTANT",
+            "SOLAR_LUMINOSITY_PEAK=1.8", "SOLAR_LUMINOSITY_END=1.2",
+            "RISE_START=200", "RISE_TICKS=200", "DROP_START=600",
+            "DROP_TICKS=200", "INFECTION_CYCLE=100", "RECOVERY_RATE=0.4",
+            "DEATH_RATE=0.2", "INFECTION_RATE=0.4"};
+
+    // the seeds the in-place and double-buffered runs are compared over
+    private static final int SEEDS = 10;
+    // the ticks the runs take to settle, left out of the means
+    private static final int BURN_IN = 500;
+    private static final double TEMPERATURE_TOLERANCE = 0.5;
+    private static final double POPULATION_TOLERANCE = 0.01;
+
+    private static final double TOLERANCE = 1e-12;
+
+    private static int failures;
+
+    public static void main(String[] args) throws Exception {
+        Params base = Params.configParams().with("SEED", "42");
+        for (String parameter : DEFAULTS) {
+            String[] pair = parameter.split("=", 2);
+            base = base.with(pair[0], pair[1]);
+        }
+
+        for (boolean torus : new boolean[] {false, true}) {
+            checkDiffusion(base.with("TORUS", torus ? "True" : "False"));
+        }
+        for (boolean extension : new boolean[] {false, true}) {
+            Params params = base.with("EXTENSION", extension ? "True" : "False");
+            checkEveryTick(params);
+            checkInPlaceRun(params);
+        }
+
+        if (failures > 0) {
+            System.out.println(failures + " checks failed");
+            System.exit(1);
+        }
+        System.out.println("All checks passed");
+    }
+
+    private static void checkDiffusion(Params params) {
+        String name = params.TORUS ? "wrapping" : "bounded";
+        Rng random = new Rng(params.SEED);
+
+        World world = new World(params, new Rng(params.SEED));
+        for (int cell = 0; cell < world.size; cell++) {
+            world.temperature.set(cell, 100 * random.nextDouble() - 50);
+        }
+        world.recountStatistics();
+        double[] before = temperatures(world);
+        world.diffuse();
+        expect(name, "the step keeps the total temperature",
+                close(total(temperatures(world)), total(before)));
+
+        expect(name, "the step is the in-place diffusion of every cell alone",
+                same(temperatures(world), superpose(params, before)));
+
+        World inPlace = new World(params, new Rng(params.SEED));
+        inPlace.temperature.put(0, before, 0, world.size);
+        for (int cell = 0; cell < inPlace.size; cell++) {
+            inPlace.diffuse(cell);
+        }
+        expect(name, "the in-place diffusion keeps the total temperature",
+                close(total(temperatures(inPlace)), total(before)));
+
+        int last = params.X_SIZE - 1;
+        checkHotCell(params, name, "a corner cell", 0, 0);
+        checkHotCell(params, name, "an edge cell", 0, params.Y_SIZE / 2);
+        checkHotCell(params, name, "an inner cell", last / 2, params.Y_SIZE / 2);
+    }
+
+    /**
+     * Diffuse a world that is cold but for one cell, and check the shares
+     * the cell keeps and gives away
+     */
+    private static void checkHotCell(Params params, String name, String where,
+                                     int x, int y) {
+        double hot = 16;
+        World world = new World(params, new Rng(params.SEED));
+        int cell = world.cellOf(x, y);
+        world.temperature.set(cell, hot);
+        world.recountStatistics();
+        int[] neighbors = new int[8];
+        int count = world.neighborsOf(cell, neighbors);
+        world.diffuse();
+
+        boolean shares = close(world.temperature.get(cell),
+                hot / 2 + (8 - count) * hot / 16);
+        double given = 0;
+        for (int i = 0; i < count; i++) {
+            shares &= close(world.temperature.get(neighbors[i]), hot / 16);
+            given += world.temperature.get(neighbors[i]);
+        }
+        shares &= close(given + world.temperature.get(cell), hot);
+        expect(name, String.format(Locale.ROOT,
+                "%s with %d neighbors keeps %d/16", where, count, 16 - count),
+                shares);
+    }
+
+    /**
+     * Diffuse every cell alone in place, each from the temperatures before
+     * the step, and add up the results
+     * @param params the configuration of the world
+     * @param before the temperatures before the step
+     * @return the temperatures after the step
+     */
+    private static double[] superpose(Params params, double[] before) {
+        World single = new World(params, new Rng(params.SEED));
+        double[] superposed = new double[single.size];
+        int[] neighbors = new int[8];
+        for (int cell = 0; cell < single.size; cell++) {
+            single.temperature.set(cell, before[cell]);
+            single.diffuse(cell);
+            int count = single.neighborsOf(cell, neighbors);
+            superposed[cell] += single.temperature.get(cell);
+            single.temperature.set(cell, 0);
+            for (int i = 0; i < count; i++) {
+                superposed[neighbors[i]] += single.temperature.get(neighbors[i]);
+                single.temperature.set(neighbors[i], 0);
+            }
+        }
+        return superposed;
+    }
+
+    /**
+     * Run a configuration and compare the step of every tick with the
+     * in-place diffusion of every cell alone
+     */
+    private static void checkEveryTick(Params params) throws IOException {
+        OutputPipeline output = pipeline(params, null);
+        SideBySideSim sim = new SideBySideSim(params, output);
+        run(sim, output);
+        expect(params.EXTENSION ? "extension" : "no extension",
+                String.format(Locale.ROOT,
+                        "%d ticks diffuse as every cell alone in place",
+                        params.ITERATION_LIMIT),
+                sim.mismatches == 0);
+    }
+
+    /**
+     * Run a configuration over several seeds, double-buffered and in place,
+     * and compare the means of their records after the burn-in
+     */
+    private static void checkInPlaceRun(Params params) throws Exception {
+        Metrics metrics = params.metrics();
+        Means buffered = new Means(metrics);
+        Means inPlace = new Means(metrics);
+        for (int seed = 1; seed <= SEEDS; seed++) {
+            Params seeded = params.with("SEED", String.valueOf(seed));
+            OutputPipeline output = pipeline(seeded, buffered);
+            run(new Sim(seeded, output), output);
+            output = pipeline(seeded, inPlace);
+            run(new InPlaceSim(seeded, output), output);
+        }
+
+        String scenario = params.EXTENSION ? "extension" : "no extension";
+        double temperature = Math.abs(buffered.mean(metrics.GLOBAL_TEMPERATURE)
+                - inPlace.mean(metrics.GLOBAL_TEMPERATURE));
+        expect(scenario, String.format(Locale.ROOT,
+                "the in-place run is %.3f degrees apart", temperature),
+                temperature <= TEMPERATURE_TOLERANCE);
+        int patches = params.X_SIZE * params.Y_SIZE;
+        for (Species species : params.SPECIES) {
+            int column = metrics.speciesColumn(species.getIndex())
+                    + Metrics.POPULATION;
+            double population = Math.abs(buffered.mean(column)
+                    - inPlace.mean(column)) / patches;
+            expect(scenario, String.format(Locale.ROOT,
+                    "the in-place %s are %.2f%% of the patches apart",
+                    species.getName().toLowerCase(Locale.ROOT), 100 * population),
+                    population <= POPULATION_TOLERANCE);
+        }
+    }
+
+    private static OutputPipeline pipeline(Params params, RecordWriter writer) {
+        List<RecordWriter> files = new ArrayList<>();
+        if (writer != null) {
+            files.add(writer);
+        }
+        return new OutputPipeline(files, ConsoleOutput.QUIET,
+                params.OUTPUT_BUFFER, params.metrics());
+    }
+
+    private static void run(Simulation sim, OutputPipeline output)
+                                                            throws IOException {
+        try {
+            sim.setup();
+            sim.go();
+        } finally {
+            output.close();
+        }
+    }
+
+    private static boolean same(double[] a, double[] b) {
+        for (int i = 0; i < a.length; i++) {
+            if (!close(a[i], b[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return a copy of the temperatures of a world
+     */
+    private static double[] temperatures(World world) {
+        double[] values = new double[world.size];
+        world.temperature.get(0, values, 0, world.size);
+        return values;
+    }
+
+    private static double total(double[] temperature) {
+        double sum = 0;
+        for (double t : temperature) {
+            sum += t;
+        }
+        return sum;
+    }
+
+    private static boolean close(double a, double b) {
+        return Math.abs(a - b) <= TOLERANCE * Math.max(1, Math.abs(b));
+    }
+
+    private static void expect(String scenario, String check, boolean passed) {
+        System.out.printf(Locale.ROOT, "%-14s %-58s %s%n", scenario, check,
+                passed ? "ok" : "FAILED");
+        if (!passed) {
+            failures++;
+        }
+    }
+
+    /**
+     * A simulation that checks the diffusion step of every tick against the
+     * in-place diffusion of every cell alone, on the temperatures heated
+     * by the tick
+     */
+    private static final class SideBySideSim extends Sim {
+
+        int mismatches;
+
+        SideBySideSim(Params params, OutputPipeline output) {
+            super(params, output);
+        }
+
+        @Override
+        void advance() {
+            world.setSolarLuminosity(solarLuminosity);
+            world.calculateTemperature(0, params.X_SIZE);
+            double[] before = temperatures(world);
+            world.diffuse();
+            if (!same(temperatures(world), superpose(params, before))) {
+                mismatches++;
+            }
+            demography(world);
+        }
+    }
+
+    /**
+     * A simulation that diffuses in place, cell by cell in cell id order,
+     * as the simulation did before the double buffer
+     */
+    private static final class InPlaceSim extends Sim {
+
+        InPlaceSim(Params params, OutputPipeline output) {
+            super(params, output);
+        }
+
+        @Override
+        void advance() {
+            world.setSolarLuminosity(solarLuminosity);
+            world.calculateTemperature(0, params.X_SIZE);
+            for (int cell = 0; cell < world.size; cell++) {
+                world.diffuse(cell);
+            }
+            world.recountStatistics();
+            demography(world);
+        }
+    }
+
+    private static void demography(World world) {
+        for (int cell = 0; cell < world.size; cell++) {
+            if (world.hasDaisy(cell)) {
+                world.checkSurvivability(cell);
+            }
+        }
+    }
+
+    /**
+     * The means of every column of the records after the burn-in
+     */
+    private static final class Means implements RecordWriter {
+
+        private final int width;
+        private final double[] sums;
+        private long count;
+
+        Means(Metrics metrics) {
+            this.width = metrics.WIDTH;
+            this.sums = new double[width];
+        }
+
+        double mean(int column) {
+            return sums[column] / count;
+        }
+
+        @Override
+        public void write(double[] record, int offset) {
+            if (record[offset + Metrics.TICK] <= BURN_IN) {
+                return;
+            }
+            for (int column = 0; column < width; column++) {
+                sums[column] += record[offset + column];
+            }
+            count++;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * MeanFieldComparison reports the error of the mean-field engine against
+ * the grid engine on the default scenarios: the configuration in
+ * "config.properties" in CONSTANT mode, the only one the mean-field engine
+ * accepts, with and without the extension.
+ * <br><br>
+ * For every scenario the grid runs a number of replicates, each with its
+ * own seed drawn from SEED, and the mean of every column over the
+ * replicates is the reference. Every column then gets the mean absolute
+ * error of the mean-field engine over the ticks where both have a value,
+ * that error relative to the mean size of the reference, and the mean
+ * standard deviation of the replicates, the noise of a single grid run to
+ * set the error against. The steady state is turned off so every run has
+ * all the ticks.
+ * <br><br>
+ * Usage, from the root of the project:
+ * <pre>
+ *   javac -d out src/*.java bench/*.java
+ *   java -cp out MeanFieldComparison [-n 8] [-p NAME=value ...]
+ * </pre>
+ * where -n is the number of grid replicates and every -p overrides a
+ * parameter of all scenarios.
+ */
+public class MeanFieldComparison {
+
+    public static void main(String[] args) throws Exception {
+        int replicates = 8;
+        Params base = Params.configParams()
+                .with("CONSOLE_OUTPUT", ConsoleOutput.QUIET.name())
+                .with("STEADY_STATE", SteadyStateAction.OFF.name())
+                .with("STREAM_PORT", "0");
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-n") && i + 1 < args.length) {
+                replicates = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-p") && i + 1 < args.length) {
+                String[] parameter = args[++i].split("=", 2);
+                base = base.with(parameter[0].trim(), parameter[1].trim());
+            } else {
+                System.err.println("Usage: java MeanFieldComparison [-n replicates]"
+                        + " [-p NAME=value ...]");
+                System.exit(1);
+            }
+        }
+
+        System.out.println("Seed: " + base.SEED);
+        for (boolean extension : new boolean[] {false, true}) {
+            Params scenario = base.with("MODE", Mode.CONSTANT.name())
+                    .with("EXTENSION", extension ? "True" : "False");
+            compare(scenario, replicates);
+        }
+    }
+
+    /**
+     * Run one scenario on both engines and print the error of every column
+     */
+    private static void compare(Params scenario, int replicates) throws Exception {
+        Metrics metrics = scenario.metrics();
+        Collector grid = new Collector(scenario.ITERATION_LIMIT, metrics.WIDTH);
+        Rng seeds = new Rng(scenario.SEED);
+        long gridNanos = 0;
+        for (int r = 0; r < replicates; r++) {
+            gridNanos += run(scenario.with("ENGINE", Engine.GRID.name())
+                    .with("SEED", String.valueOf(seeds.nextLong())), grid);
+        }
+        Collector meanField = new Collector(scenario.ITERATION_LIMIT, metrics.WIDTH);
+        long meanFieldNanos = run(scenario.with("ENGINE", Engine.MEAN_FIELD.name()),
+                meanField);
+
+        System.out.println();
+        System.out.printf(Locale.ROOT, "%s, extension %s: %d grid replicates,"
+                        + " %.1f ms per grid run, %.2f ms per mean-field run%n",
+                scenario.MODE, scenario.EXTENSION, replicates,
+                gridNanos / 1e6 / replicates, meanFieldNanos / 1e6);
+        System.out.printf(Locale.ROOT, "%-28s %12s %12s %12s%n",
+                "column", "mean error", "relative", "grid noise");
+        String[] names = metrics.columnNames();
+        for (int column = 1; column < metrics.WIDTH; column++) {
+            double error = 0;
+            double size = 0;
+            double noise = 0;
+            int ticks = 0;
+            for (int tick = 0; tick < grid.ticks; tick++) {
+                double reference = grid.mean(tick, column);
+                double value = meanField.mean(tick, column);
+                if (Double.isNaN(reference) || Double.isNaN(value)) {
+                    continue;
+                }
+                error += Math.abs(value - reference);
+                size += Math.abs(reference);
+                noise += grid.deviation(tick, column);
+                ticks++;
+            }
+            // a column that is 0 throughout has no relative error
+            System.out.printf(Locale.ROOT, "%-28s %12.3f %12s %12.3f%n",
+                    names[column], error / ticks, size == 0 ? "-"
+                            : String.format(Locale.ROOT, "%.1f%%", 100 * error / size),
+                    noise / ticks);
+        }
+    }
+
+    /**
+     * Run a simulation into a collector
+     * @return the time of the run in nanoseconds
+     */
+    private static long run(Params params, Collector collector) throws IOException {
+        List<RecordWriter> files = new ArrayList<>();
+        files.add(collector);
+        OutputPipeline output = new OutputPipeline(files, ConsoleOutput.QUIET,
+                params.OUTPUT_BUFFER, params.metrics());
+        long start = System.nanoTime();
+        Simulation sim = Simulation.create(params, output);
+        sim.setup();
+        sim.go();
+        output.close();
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * The sums of every column of every tick over the runs written to it,
+     * leaving out the undefined values
+     */
+    private static final class Collector implements RecordWriter {
+
+        final int ticks;
+        private final int width;
+        private final double[] sum;
+        private final double[] squares;
+        private final int[] count;
+
+        Collector(int ticks, int width) {
+            this.ticks = ticks;
+            this.width = width;
+            sum = new double[ticks * width];
+            squares = new double[ticks * width];
+            count = new int[ticks * width];
+        }
+
+        @Override
+        public void write(double[] record, int offset) {
+            int tick = (int) record[offset + Metrics.TICK] - 1;
+            for (int column = 0; column < width; column++) {
+                double value = record[offset + column];
+                if (!Double.isNaN(value)) {
+                    sum[tick * width + column] += value;
+                    squares[tick * width + column] += value * value;
+                    count[tick * width + column]++;
+                }
+            }
+        }
+
+        double mean(int tick, int column) {
+            int n = count[tick * width + column];
+            return n == 0 ? Double.NaN : sum[tick * width + column] / n;
+        }
+
+        double deviation(int tick, int column) {
+            int n = count[tick * width + column];
+            double mean = mean(tick, column);
+            return n < 2 ? 0 : Math.sqrt(Math.max(0,
+                    (squares[tick * width + column] - n * mean * mean) / (n - 1)));
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
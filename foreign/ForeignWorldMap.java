@@ -0,0 +1,173 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import jdk.incubator.foreign.MemoryAccess;
+import jdk.incubator.foreign.MemorySegment;
+import jdk.incubator.foreign.ResourceScope;
+
+/**
+ * ForeignWorldMap maps the world map through the incubating Foreign
+ * Function &amp; Memory API: the whole file is one mapped memory segment,
+ * addressed by long offsets however large the world, and every plane is a
+ * slice of it that the world reads and writes in place. It is loaded by
+ * {@link WorldMap#open(File, Params)} when the module jdk.incubator.foreign
+ * is added, and lays out the same file as {@link BufferWorldMap}.
+ */
+public class ForeignWorldMap implements WorldMap {
+
+    private static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private final ResourceScope scope;
+    private final MemorySegment segment;
+    private final Doubles[] temperature;
+    private final Bytes cover;
+    private final Bytes age;
+    private final Bytes infected;
+    private long sequence;
+
+    /**
+     * Create and map the file of a world
+     * @param file the file, replaced if it exists
+     * @param params the configuration of the world
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public ForeignWorldMap(File file, Params params) throws IOException {
+        int cells = params.X_SIZE * params.Y_SIZE;
+        long size = WorldMap.size(cells);
+        try (RandomAccessFile random = new RandomAccessFile(file, "rw")) {
+            random.setLength(0);
+            random.setLength(size);
+        }
+        // shared, as the row stripes of the tick run on the threads of a pool
+        scope = ResourceScope.newSharedScope();
+        segment = MemorySegment.mapFile(file.toPath(), 0, size,
+                FileChannel.MapMode.READ_WRITE, scope);
+        temperature = new Doubles[] {
+            new Doubles(segment.asSlice(WorldMap.temperatureOffset(cells, 0),
+                    8L * cells), cells),
+            new Doubles(segment.asSlice(WorldMap.temperatureOffset(cells, 1),
+                    8L * cells), cells)
+        };
+        cover = new Bytes(segment.asSlice(WorldMap.coverOffset(cells), cells),
+                cells);
+        age = new Bytes(segment.asSlice(WorldMap.ageOffset(cells), cells),
+                cells);
+        infected = new Bytes(segment.asSlice(WorldMap.infectedOffset(cells),
+                cells), cells);
+
+        MemoryAccess.setIntAtOffset(segment, 0, ORDER, MAGIC);
+        MemoryAccess.setIntAtOffset(segment, 4, ORDER, VERSION);
+        MemoryAccess.setIntAtOffset(segment, X_SIZE, ORDER, params.X_SIZE);
+        MemoryAccess.setIntAtOffset(segment, Y_SIZE, ORDER, params.Y_SIZE);
+        MemoryAccess.setIntAtOffset(segment, COVERS, ORDER,
+                params.SPECIES.length + 1);
+        MemoryAccess.setLongAtOffset(segment, SEQUENCE, ORDER, ++sequence);
+    }
+
+    @Override
+    public DoublePlane temperature(int plane) {
+        return temperature[plane];
+    }
+
+    @Override
+    public BytePlane cover() {
+        return cover;
+    }
+
+    @Override
+    public BytePlane age() {
+        return age;
+    }
+
+    @Override
+    public BytePlane infected() {
+        return infected;
+    }
+
+    @Override
+    public void beginTick() {
+        MemoryAccess.setLongAtOffset(segment, SEQUENCE, ORDER, ++sequence);
+        VarHandle.releaseFence();
+    }
+
+    @Override
+    public void endTick(World world, int tick) {
+        MemoryAccess.setIntAtOffset(segment, TICK, ORDER, tick);
+        MemoryAccess.setDoubleAtOffset(segment, SOLAR_LUMINOSITY, ORDER,
+                world.getSolarLuminosity());
+        MemoryAccess.setIntAtOffset(segment, TEMPERATURE_PLANE, ORDER,
+                world.temperature == temperature[0] ? 0 : 1);
+        VarHandle.releaseFence();
+        MemoryAccess.setLongAtOffset(segment, SEQUENCE, ORDER, ++sequence);
+    }
+
+    /**
+     * Write the mapped file back and unmap it
+     */
+    @Override
+    public void close() {
+        segment.force();
+        scope.close();
+    }
+
+    /**
+     * A temperature plane, a slice of the file
+     */
+    private static final class Doubles extends DoublePlane {
+
+        private final MemorySegment plane;
+
+        Doubles(MemorySegment plane, int size) {
+            super(size);
+            this.plane = plane;
+        }
+
+        @Override
+        public double get(int cell) {
+            return MemoryAccess.getDoubleAtIndex(plane, cell, ORDER);
+        }
+
+        @Override
+        public void set(int cell, double value) {
+            MemoryAccess.setDoubleAtIndex(plane, cell, ORDER, value);
+        }
+    }
+
+    /**
+     * A plane of bytes, a slice of the file
+     */
+    private static final class Bytes extends BytePlane {
+
+        private final MemorySegment plane;
+
+        Bytes(MemorySegment plane, int size) {
+            super(size);
+            this.plane = plane;
+        }
+
+        @Override
+        public byte get(int cell) {
+            return MemoryAccess.getByteAtOffset(plane, cell);
+        }
+
+        @Override
+        public void set(int cell, byte value) {
+            MemoryAccess.setByteAtOffset(plane, cell, value);
+        }
+
+        @Override
+        public void get(int from, byte[] values, int offset, int length) {
+            MemorySegment.ofArray(values).asSlice(offset, length)
+                    .copyFrom(plane.asSlice(from, length));
+        }
+
+        @Override
+        public void put(int from, byte[] values, int offset, int length) {
+            plane.asSlice(from, length)
+                    .copyFrom(MemorySegment.ofArray(values).asSlice(offset, length));
+        }
+    }
+}
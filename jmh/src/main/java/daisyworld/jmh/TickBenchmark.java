@@ -0,0 +1,119 @@
+package daisyworld.jmh;
+
+import java.lang.reflect.Method;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * TickBenchmark runs the benchmarks of the phases of a tick in bench/Bench.java
+ * under JMH, over the same sweep of world sizes with and without the
+ * extension.
+ * <br><br>
+ * The simulation lives in the default package, which a named package cannot
+ * import, so the benchmarks are reached through Bench.prepare by
+ * reflection once per trial; every call is then a plain interface call.
+ * <br><br>
+ * Usage, from the root of the project, so that "src/config.properties" is
+ * found:
+ * <pre>
+ *   mvn -B package
+ *   java -jar jmh/target/benchmarks.jar -rf json -rff jmh.json
+ *   java -jar jmh/target/benchmarks.jar sprout -p size=512
+ * </pre>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+@Fork(2)
+public class TickBenchmark {
+
+    @Param({"29", "128", "512", "2048"})
+    public int size;
+
+    @Param({"false", "true"})
+    public boolean extension;
+
+    private Map<String, LongSupplier> benchmarks;
+    private LongSupplier tick;
+    private LongSupplier calculateTemperature;
+    private LongSupplier diffuse;
+    private LongSupplier checkSurvivability;
+    private LongSupplier sprout;
+    private LongSupplier neighbors;
+    private LongSupplier report;
+
+    @Setup(Level.Trial)
+    @SuppressWarnings("unchecked")
+    public void setup() throws Exception {
+        Map<String, String> point = new LinkedHashMap<>();
+        point.put("X_SIZE", String.valueOf(size));
+        point.put("EXTENSION", String.valueOf(extension));
+        Method prepare = Class.forName("Bench").getMethod("prepare", Map.class);
+        benchmarks = (Map<String, LongSupplier>) prepare.invoke(null, point);
+        tick = benchmarks.get("tick");
+        calculateTemperature = benchmarks.get("calculateTemperature");
+        diffuse = benchmarks.get("diffuse");
+        checkSurvivability = benchmarks.get("checkSurvivability");
+        sprout = benchmarks.get("sprout");
+        neighbors = benchmarks.get("neighbors");
+        report = benchmarks.get("report");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        ((AutoCloseable) benchmarks).close();
+    }
+
+    @Benchmark
+    public long tick() {
+        return tick.getAsLong();
+    }
+
+    @Benchmark
+    public long calculateTemperature() {
+        return calculateTemperature.getAsLong();
+    }
+
+    @Benchmark
+    public long diffuse() {
+        return diffuse.getAsLong();
+    }
+
+    @Benchmark
+    public long checkSurvivability() {
+        return checkSurvivability.getAsLong();
+    }
+
+    @Benchmark
+    public long sprout() {
+        return sprout.getAsLong();
+    }
+
+    @Benchmark
+    public long neighbors() {
+        return neighbors.getAsLong();
+    }
+
+    @Benchmark
+    public long report() {
+        return report.getAsLong();
+    }
+}
@@ -0,0 +1,384 @@
+import java.io.IOException;
+
+/**
+ * AbstractSim is what the engines share: the tick loop, the solar
+ * luminosity and its ramps, the record of every tick and its output, the
+ * steady state, the timing of the phases and the random streams. An engine
+ * evolves its world in {@link #advance()} and reports its metrics.
+ */
+abstract class AbstractSim implements Simulation {
+
+    final Params params;
+    private final OutputPipeline output;
+    // the layout of the records, given by the species
+    private final Metrics metrics;
+    // the record of the current tick, copied into the output pipeline
+    private final double[] record;
+
+    int tick = 1;
+    double solarLuminosity;
+    // root of the random streams of this simulation, seeded by SEED
+    Rng random;
+    // draws of the initial seeding and ages
+    Rng setupRandom;
+    // draws of the random infections
+    Rng infectionRandom;
+    // seeds the per-cell draws of the synchronous demography
+    long seed;
+    // watches the records for a steady state, null when STEADY_STATE is OFF
+    SteadyState steadyState;
+    boolean steady;
+    // times the phases of every tick, null when INSTRUMENTATION is off or
+    // before the first tick
+    Instrumentation instruments;
+
+    /**
+     * @param params the configuration of this simulation
+     * @param output the pipeline the record of every tick is published to
+     */
+    AbstractSim(Params params, OutputPipeline output) {
+        this.params = params;
+        this.output = output;
+        this.metrics = params.metrics();
+        this.record = new double[metrics.WIDTH];
+        this.solarLuminosity = params.SOLAR_LUMINOSITY;
+        if (params.STEADY_STATE != SteadyStateAction.OFF) {
+            steadyState = new SteadyState(params.STEADY_STATE_WINDOW,
+                    params.STEADY_STATE_TOLERANCE, params.STEADY_STATE_NOISE,
+                    metrics);
+        }
+    }
+
+    /**
+     * Announce the seed of a new simulation and draw its random streams
+     * from it, in the order every engine draws them
+     * @return the stream of the world, split off after the others
+     */
+    Rng seedStreams() {
+        if (params.CONSOLE_OUTPUT != ConsoleOutput.QUIET) {
+            System.out.println("Seed: " + params.SEED);
+        }
+        random = new Rng(params.SEED);
+        setupRandom = random.split();
+        infectionRandom = random.split();
+        seed = random.nextLong();
+        return random.split();
+    }
+
+    /**
+     * Continue from the tick and random streams of another simulation, at
+     * the solar luminosity of this configuration, see
+     * {@link #replayLuminosity()}
+     * @param template the simulation to continue from
+     */
+    void continueFrom(AbstractSim template) {
+        tick = template.tick;
+        replayLuminosity();
+        random = template.random.copy();
+        setupRandom = template.setupRandom.copy();
+        infectionRandom = template.infectionRandom.copy();
+        seed = template.seed;
+    }
+
+    /**
+     * Loops the plots indefinitely until the tick reaches the limit, and
+     * finishes the simulation however the loop ends
+     *
+     * @throws IOException
+     */
+    @Override
+    public void go() throws IOException {
+        try {
+            while (tick < params.ITERATION_LIMIT + 1 && !steady) {
+                if (params.STEADY_STATE == SteadyStateAction.FAST_FORWARD
+                        && calculateGlobalPopulation() == 0
+                        && fastForwardBareWorld()) {
+                    break;
+                }
+                step();
+            }
+            if (steady && params.STEADY_STATE == SteadyStateAction.FAST_FORWARD) {
+                fastForwardSteadyState();
+            }
+        } catch (IOException | RuntimeException e) {
+            // release the threads, files and workers before the failure
+            // goes up, keeping it as the cause
+            try {
+                finish();
+            } catch (IOException | RuntimeException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        finish();
+    }
+
+    /**
+     * Run one tick: update the temperature, let the daisies age, die and
+     * sprout, and publish the metrics of the tick
+     *
+     * @throws IOException if the output or the frame file fails
+     */
+    @Override
+    public void step() throws IOException {
+        if (params.INSTRUMENTATION) {
+            if (instruments == null) {
+                instruments = new Instrumentation(params.outputName());
+            }
+            instruments.startTick();
+        }
+        if(params.MODE.equals(Mode.RAMP_UP_RAMP_DOWN.toString())){
+            changeLuminosity(tick);
+        }
+        advance();
+
+        if(params.EXTENSION && tick % params.INFECTION_CYCLE == 0){
+            infectRandomly();
+        }
+        lap(TickPhase.INFECTION);
+
+        publishRecord();
+        if (steadyState != null && tick >= steadyFrom()) {
+            steady = steadyState.add(record);
+        }
+        recordWorld();
+        lap(TickPhase.OUTPUT);
+        if (instruments != null) {
+            instruments.endTick(tick, countBirths(), countDeaths(),
+                    countInfections(), output.bytesWritten(),
+                    calculateGlobalPopulation(), calculateGlobalTemperature());
+        }
+        tick++;
+    }
+
+    /**
+     * Update the temperature of the world at the current solar luminosity
+     * and let the daisies age, die and sprout
+     *
+     * @throws IOException if the world lives in other processes and
+     *                     talking to them fails
+     */
+    abstract void advance() throws IOException;
+
+    /**
+     * [Extension]:
+     * Randomly infect a healthy daisy. If all daisies are infected, do nothing.
+     *
+     * @throws IOException if the world lives in other processes and
+     *                     talking to them fails
+     */
+    public abstract void infectRandomly() throws IOException;
+
+    /**
+     * Record the world itself at the end of a tick, after its metrics, for
+     * the engines that have one to record
+     *
+     * @throws IOException if the file the world is recorded to fails
+     */
+    void recordWorld() throws IOException {
+    }
+
+    /**
+     * Compute the remaining ticks of a world without daisies without
+     * simulating them, if the engine can
+     *
+     * @return whether the remaining ticks were published
+     * @throws IOException if the output fails
+     */
+    boolean fastForwardBareWorld() throws IOException {
+        return false;
+    }
+
+    /**
+     * Fill the record with the metrics of the current tick and publish it
+     *
+     * @throws IOException if the output fails
+     */
+    void publishRecord() throws IOException {
+        recordMetrics(record);
+        output.publish(record);
+    }
+
+    /**
+     * End a phase of the tick, if the phases are timed
+     * @param phase the phase that has just finished
+     */
+    void lap(TickPhase phase) {
+        if (instruments != null) {
+            instruments.lap(phase);
+        }
+    }
+
+    /**
+     * Get the first tick from which the solar luminosity no longer changes
+     * @return the tick
+     */
+    private int steadyFrom() {
+        if (params.MODE.equals(Mode.RAMP_UP_RAMP_DOWN.toString())) {
+            return Math.max(params.RISE_START + params.RISE_TICKS,
+                    params.DROP_START + params.DROP_TICKS);
+        }
+        return 1;
+    }
+
+    /**
+     * Publish the steady values for the remaining ticks without simulating
+     * them
+     *
+     * @throws IOException if the output fails
+     */
+    private void fastForwardSteadyState() throws IOException {
+        steadyState.steadyRecord(record);
+        while (tick < params.ITERATION_LIMIT + 1) {
+            record[Metrics.TICK] = tick;
+            output.publish(record);
+            tick++;
+        }
+    }
+
+    /**
+     * Report the timing of the phases. Finishing again does nothing.
+     *
+     * @throws IOException if the instrumentation cannot be closed
+     */
+    @Override
+    public void finish() throws IOException {
+        if (instruments != null) {
+            instruments.close();
+            instruments = null;
+        }
+    }
+
+    /**
+     * Set the solar luminosity to the one a run of this configuration has
+     * when it reaches the current tick: SOLAR_LUMINOSITY, changed by the
+     * ramps of the ticks before in RAMP_UP_RAMP_DOWN mode. A clone or a
+     * restored checkpoint thus runs at its own luminosity, and at exactly the
+     * saved one under the configuration it was saved from.
+     */
+    void replayLuminosity() {
+        solarLuminosity = params.SOLAR_LUMINOSITY;
+        if(params.MODE.equals(Mode.RAMP_UP_RAMP_DOWN.toString())){
+            for (int t = 1; t < tick; t++) {
+                changeLuminosity(t);
+            }
+        }
+    }
+
+    /**
+     * Change the solar luminosity according to time(tick)
+     * @param tick the steps this program has run
+     */
+    void changeLuminosity(int tick) {
+        if(tick>= params.RISE_START &&
+                tick < params.RISE_START + params.RISE_TICKS){
+            increaseLuminosity();
+        }
+        if(tick >= params.DROP_START
+                && tick < params.DROP_START + params.DROP_TICKS){
+            decreaseLuminosity();
+        }
+    }
+
+    /**
+     * Decrease the solar luminosity according to the speed set in config
+     */
+    private void decreaseLuminosity() {
+        double decreaseSpeed =
+                (params.SOLAR_LUMINOSITY_PEAK - params.SOLAR_LUMINOSITY_END)
+                    / params.DROP_TICKS;
+        solarLuminosity -= decreaseSpeed;
+    }
+
+    /**
+     * Increase the solar luminosity according to the speed set in config
+     */
+    private void increaseLuminosity() {
+        double increaseSpeed =
+                (params.SOLAR_LUMINOSITY_PEAK - solarLuminosity)
+                        / params.RISE_TICKS;
+        solarLuminosity += increaseSpeed;
+    }
+
+    /**
+     * @return the number of daisies born since the world was made
+     */
+    public abstract long countBirths();
+
+    /**
+     * @return the number of daisies died since the world was made
+     */
+    public abstract long countDeaths();
+
+    /**
+     * @return the number of daisies infected since the world was made
+     */
+    public abstract long countInfections();
+
+    /**
+     * Count the number of daisies in the world
+     *
+     * @return the number of daisies
+     */
+    public abstract int calculateGlobalPopulation();
+
+    /**
+     * Count the number of daisies of chosen species
+     * @param species the species of daisies
+     * @return the number of daisies of that species
+     */
+    public abstract int calculatePopulation(Species species);
+
+    /**
+     * Count the number of infected daisies of chosen species
+     * @param species the species of daisies
+     * @return the number of infected daisies of that species
+     */
+    public abstract int calculateInfectedPopulation(Species species);
+
+    /**
+     * @return the mean of all patches' temperature
+     */
+    public abstract double calculateGlobalTemperature();
+
+    /**
+     * @param species the species of daisies
+     * @return the average local temperature of a species of daisies if
+     *         they are not extinct, otherwise "NaN"
+     */
+    public abstract double calculateLocalTemperatureAvg(Species species);
+
+    /**
+     * Calculate the local temperature average of daisies from their
+     * number and temperature sum
+     *
+     * @param population the number of daisies
+     * @param localTempSum the sum of their local temperatures
+     * @return the average rounded to 2 decimals, or "NaN" if there are none
+     */
+    static double localTemperatureAvg(int population, double localTempSum) {
+        // if the target species of daisies are not extinct:
+        //      round the local temperature average up to 2 decimal
+        // otherwise: NaN
+        return population == 0
+                ? Double.NaN
+                :(double)Math.round(localTempSum/population * 100) / 100;
+    }
+
+    /**
+     * Fill a record with the metrics of the current tick
+     * @param record the record, laid out as described by {@link Metrics}
+     */
+    public void recordMetrics(double[] record) {
+        record[Metrics.TICK] = tick;
+        for (Species species : params.SPECIES) {
+            int column = metrics.speciesColumn(species.getIndex());
+            record[column + Metrics.POPULATION] = calculatePopulation(species);
+            record[column + Metrics.LOCAL_TEMPERATURE] =
+                    calculateLocalTemperatureAvg(species);
+            record[column + Metrics.INFECTED] = calculateInfectedPopulation(species);
+        }
+        record[metrics.GLOBAL_POPULATION] = calculateGlobalPopulation();
+        record[metrics.GLOBAL_TEMPERATURE] = calculateGlobalTemperature();
+    }
+}
@@ -1,10 +1,64 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
 public class App {
     public static void main(String[] args) throws Exception {
-            Params.configParams();
-            WriterCSV.initCSV();
-            Sim sim = new Sim();
-            sim.setup();
-            sim.go();
-            WriterCSV.flushAndClose();
+            run(Params.configParams());
+    }
+
+    /**
+     * Run one simulation with its own output files, named after the output
+     * name of its configuration
+     *
+     * @param params the configuration of the simulation
+     * @throws IOException if writing the output fails
+     */
+    public static void run(Params params) throws IOException {
+            run(params, null);
+    }
+
+    /**
+     * Run one simulation with its own output files, continuing from the
+     * state of another simulation if given, otherwise from the checkpoint
+     * RESTORE_FROM if set
+     *
+     * @param params the configuration of the simulation
+     * @param template the simulation to clone, or null
+     * @throws IOException if writing the output fails
+     */
+    public static void run(Params params, Sim template) throws IOException {
+            List<RecordWriter> files = new ArrayList<>();
+            if (params.OUTPUT_FORMAT != OutputFormat.BINARY) {
+                files.add(new WriterCSV(WriterCSV.defaultFile(params),
+                        params.metrics()));
+            }
+            if (params.OUTPUT_FORMAT != OutputFormat.CSV) {
+                files.add(new WriterBinary(WriterBinary.defaultFile(params),
+                        params.describe(), params.metrics()));
+            }
+            if (params.STREAM_PORT > 0) {
+                files.add(new MetricsStream(params.STREAM_PORT,
+                        params.outputName(), params.STREAM_BUFFER,
+                        params.metrics()));
+            }
+            OutputPipeline output = new OutputPipeline(files,
+                    params.CONSOLE_OUTPUT, params.OUTPUT_BUFFER, params.metrics());
+            try {
+                Simulation sim;
+                if (template != null) {
+                    sim = Simulation.fork(template, params, output);
+                } else if (!params.RESTORE_FROM.isEmpty()) {
+                    sim = Simulation.restore(params, output,
+                            new File(params.RESTORE_FROM));
+                } else {
+                    sim = Simulation.create(params, output);
+                    sim.setup();
+                }
+                sim.go();
+            } finally {
+                output.close();
+            }
     }
 }
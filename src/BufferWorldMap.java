@@ -0,0 +1,258 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * BufferWorldMap maps the world map through mapped byte buffers, the
+ * {@link WorldMap} used when the Foreign Function & Memory API is not
+ * available. A byte buffer holds at most 2 GB, so every plane is mapped on
+ * its own in chunks of 1 GB, and a cell is found by the high bits of its id
+ * for the chunk and the low bits for the index within it.
+ */
+public class BufferWorldMap implements WorldMap {
+
+    // the cells of a chunk of a temperature plane and of a byte plane
+    private static final int DOUBLE_BITS = 27;
+    private static final int BYTE_BITS = 30;
+
+    private final MappedByteBuffer header;
+    private final Doubles[] temperature;
+    private final Bytes cover;
+    private final Bytes age;
+    private final Bytes infected;
+    private long sequence;
+
+    /**
+     * Create and map the file of a world
+     * @param file the file, replaced if it exists
+     * @param params the configuration of the world
+     * @throws IOException if the file cannot be created or mapped
+     */
+    public BufferWorldMap(File file, Params params) throws IOException {
+        int cells = params.X_SIZE * params.Y_SIZE;
+        try (RandomAccessFile random = new RandomAccessFile(file, "rw")) {
+            random.setLength(0);
+            random.setLength(WorldMap.size(cells));
+            FileChannel channel = random.getChannel();
+            header = map(channel, 0, HEADER);
+            temperature = new Doubles[] {
+                new Doubles(channel, WorldMap.temperatureOffset(cells, 0), cells),
+                new Doubles(channel, WorldMap.temperatureOffset(cells, 1), cells)
+            };
+            cover = new Bytes(channel, WorldMap.coverOffset(cells), cells);
+            age = new Bytes(channel, WorldMap.ageOffset(cells), cells);
+            infected = new Bytes(channel, WorldMap.infectedOffset(cells), cells);
+        }
+
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putInt(X_SIZE, params.X_SIZE);
+        header.putInt(Y_SIZE, params.Y_SIZE);
+        header.putInt(COVERS, params.SPECIES.length + 1);
+        header.putLong(SEQUENCE, ++sequence);
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long offset,
+                                        long length) throws IOException {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE,
+                offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    @Override
+    public DoublePlane temperature(int plane) {
+        return temperature[plane];
+    }
+
+    @Override
+    public BytePlane cover() {
+        return cover;
+    }
+
+    @Override
+    public BytePlane age() {
+        return age;
+    }
+
+    @Override
+    public BytePlane infected() {
+        return infected;
+    }
+
+    @Override
+    public void beginTick() {
+        header.putLong(SEQUENCE, ++sequence);
+        VarHandle.releaseFence();
+    }
+
+    @Override
+    public void endTick(World world, int tick) {
+        header.putInt(TICK, tick);
+        header.putDouble(SOLAR_LUMINOSITY, world.getSolarLuminosity());
+        header.putInt(TEMPERATURE_PLANE,
+                world.temperature == temperature[0] ? 0 : 1);
+        VarHandle.releaseFence();
+        header.putLong(SEQUENCE, ++sequence);
+    }
+
+    /**
+     * Write the mapped file back; the buffers are unmapped when they are
+     * collected
+     */
+    @Override
+    public void close() {
+        header.force();
+        for (Doubles plane : temperature) {
+            plane.force();
+        }
+        cover.force();
+        age.force();
+        infected.force();
+    }
+
+    /**
+     * A temperature plane of the file
+     */
+    private static final class Doubles extends DoublePlane {
+
+        private static final int MASK = (1 << DOUBLE_BITS) - 1;
+
+        private final MappedByteBuffer[] mapped;
+        private final DoubleBuffer[] chunks;
+        // the first chunk, which holds every cell of all but huge worlds
+        private final DoubleBuffer first;
+
+        Doubles(FileChannel channel, long offset, int size) throws IOException {
+            super(size);
+            int count = (int) (((long) size + MASK) >>> DOUBLE_BITS);
+            mapped = new MappedByteBuffer[count];
+            chunks = new DoubleBuffer[count];
+            for (int c = 0; c < count; c++) {
+                long start = (long) c << DOUBLE_BITS;
+                mapped[c] = map(channel, offset + 8 * start,
+                        8 * Math.min(MASK + 1, size - start));
+                chunks[c] = mapped[c].asDoubleBuffer();
+            }
+            first = chunks[0];
+        }
+
+        @Override
+        public double get(int cell) {
+            return cell <= MASK ? first.get(cell)
+                    : chunks[cell >>> DOUBLE_BITS].get(cell & MASK);
+        }
+
+        @Override
+        public void set(int cell, double value) {
+            if (cell <= MASK) {
+                first.put(cell, value);
+            } else {
+                chunks[cell >>> DOUBLE_BITS].put(cell & MASK, value);
+            }
+        }
+
+        @Override
+        public void get(int from, double[] values, int offset, int length) {
+            while (length > 0) {
+                int index = from & MASK;
+                int part = Math.min(length, MASK + 1 - index);
+                chunks[from >>> DOUBLE_BITS].get(index, values, offset, part);
+                from += part;
+                offset += part;
+                length -= part;
+            }
+        }
+
+        @Override
+        public void put(int from, double[] values, int offset, int length) {
+            while (length > 0) {
+                int index = from & MASK;
+                int part = Math.min(length, MASK + 1 - index);
+                chunks[from >>> DOUBLE_BITS].put(index, values, offset, part);
+                from += part;
+                offset += part;
+                length -= part;
+            }
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : mapped) {
+                chunk.force();
+            }
+        }
+    }
+
+    /**
+     * A plane of bytes of the file
+     */
+    private static final class Bytes extends BytePlane {
+
+        private static final int MASK = (1 << BYTE_BITS) - 1;
+
+        private final MappedByteBuffer[] chunks;
+        // the first chunk, which holds every cell of all but huge worlds
+        private final MappedByteBuffer first;
+
+        Bytes(FileChannel channel, long offset, int size) throws IOException {
+            super(size);
+            chunks = new MappedByteBuffer[(int) (((long) size + MASK) >>> BYTE_BITS)];
+            for (int c = 0; c < chunks.length; c++) {
+                long start = (long) c << BYTE_BITS;
+                chunks[c] = map(channel, offset + start,
+                        Math.min(MASK + 1, size - start));
+            }
+            first = chunks[0];
+        }
+
+        @Override
+        public byte get(int cell) {
+            return cell <= MASK ? first.get(cell)
+                    : chunks[cell >>> BYTE_BITS].get(cell & MASK);
+        }
+
+        @Override
+        public void set(int cell, byte value) {
+            if (cell <= MASK) {
+                first.put(cell, value);
+            } else {
+                chunks[cell >>> BYTE_BITS].put(cell & MASK, value);
+            }
+        }
+
+        @Override
+        public void get(int from, byte[] values, int offset, int length) {
+            while (length > 0) {
+                int index = from & MASK;
+                int part = Math.min(length, MASK + 1 - index);
+                chunks[from >>> BYTE_BITS].get(index, values, offset, part);
+                from += part;
+                offset += part;
+                length -= part;
+            }
+        }
+
+        @Override
+        public void put(int from, byte[] values, int offset, int length) {
+            while (length > 0) {
+                int index = from & MASK;
+                int part = Math.min(length, MASK + 1 - index);
+                chunks[from >>> BYTE_BITS].put(index, values, offset, part);
+                from += part;
+                offset += part;
+                length -= part;
+            }
+        }
+
+        void force() {
+            for (MappedByteBuffer chunk : chunks) {
+                chunk.force();
+            }
+        }
+    }
+}
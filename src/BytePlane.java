@@ -0,0 +1,148 @@
+/**
+ * BytePlane holds one byte for every cell of a world: the cover codes, the
+ * ages and the infection flags of {@link World}, a flag being 1 for true
+ * and 0 for false. Like {@link DoublePlane}, the plane lives on the heap,
+ * or in the file of a {@link WorldMap} when WORLD_MAP is on.
+ */
+public abstract class BytePlane {
+
+    /** The number of cells */
+    final int size;
+
+    BytePlane(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Make a plane on the heap
+     * @param size the number of cells
+     * @return the plane, all 0
+     */
+    public static BytePlane onHeap(int size) {
+        return new Heap(size);
+    }
+
+    /**
+     * @param cell the cell id
+     * @return the value of the cell
+     */
+    public abstract byte get(int cell);
+
+    /**
+     * @param cell the cell id
+     * @param value the new value of the cell
+     */
+    public abstract void set(int cell, byte value);
+
+    /**
+     * @param cell the cell id
+     * @return whether the flag of the cell is set
+     */
+    public boolean is(int cell) {
+        return get(cell) != 0;
+    }
+
+    /**
+     * @param cell the cell id
+     * @param flag the new flag of the cell
+     */
+    public void set(int cell, boolean flag) {
+        set(cell, (byte) (flag ? 1 : 0));
+    }
+
+    /**
+     * Copy the values of a range of cells into an array
+     * @param from the first cell
+     * @param values the array
+     * @param offset the index in the array of the first value
+     * @param length the number of cells
+     */
+    public void get(int from, byte[] values, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = get(from + i);
+        }
+    }
+
+    /**
+     * Set the values of a range of cells from an array
+     * @param from the first cell
+     * @param values the array
+     * @param offset the index in the array of the first value
+     * @param length the number of cells
+     */
+    public void put(int from, byte[] values, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            set(from + i, values[offset + i]);
+        }
+    }
+
+    /**
+     * Copy every value of a plane of the same size, a part at a time
+     * @param other the plane
+     */
+    public void copyFrom(BytePlane other) {
+        byte[] part = new byte[Math.min(size, 1 << 16)];
+        for (int from = 0; from < size; from += part.length) {
+            int length = Math.min(part.length, size - from);
+            other.get(from, part, 0, length);
+            put(from, part, 0, length);
+        }
+    }
+
+    /**
+     * Get the array the plane is kept in, so that the temperature kernels
+     * can run over it
+     * @return the array, or null if the plane is not on the heap
+     */
+    byte[] array() {
+        return null;
+    }
+
+    /**
+     * The plane on the heap, in an array
+     */
+    static final class Heap extends BytePlane {
+
+        private final byte[] values;
+
+        Heap(int size) {
+            super(size);
+            values = new byte[size];
+        }
+
+        @Override
+        public byte get(int cell) {
+            return values[cell];
+        }
+
+        @Override
+        public void set(int cell, byte value) {
+            values[cell] = value;
+        }
+
+        @Override
+        public boolean is(int cell) {
+            return values[cell] != 0;
+        }
+
+        @Override
+        public void get(int from, byte[] values, int offset, int length) {
+            System.arraycopy(this.values, from, values, offset, length);
+        }
+
+        @Override
+        public void put(int from, byte[] values, int offset, int length) {
+            System.arraycopy(values, offset, this.values, from, length);
+        }
+
+        @Override
+        public void copyFrom(BytePlane other) {
+            other.get(0, values, 0, size);
+        }
+
+        @Override
+        byte[] array() {
+            return values;
+        }
+    }
+}
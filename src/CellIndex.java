@@ -0,0 +1,136 @@
+import java.util.Arrays;
+
+/**
+ * CellIndex holds a set of cell ids in a dense array, so that a uniformly
+ * random cell of the set can be drawn, and any cell removed, in O(1).
+ * <br><br>
+ * The ids of the set fill the front of the array in no particular order,
+ * and a position map gives the place of every cell in the array, or -1 if
+ * it is not in the set. A cell is removed by moving the last id of the
+ * array into its place. Drawing a uniform rank and taking the cell at that
+ * rank thus picks a uniform cell, but which cell a rank gives depends on
+ * the cells removed before; a set built the same way and changed in the
+ * same order gives the same cells.
+ * <br><br>
+ * The index takes one int a cell of the world, and another once the
+ * position map is built, so it is made for the seeding of a world and
+ * dropped afterwards. The seeding only takes cells by rank, so the position
+ * map is only built when a cell is first looked up by its id: drawing
+ * millions of seeds then costs one random access each, into the array of
+ * ids.
+ */
+public class CellIndex {
+
+    // the cells of the set, in cells[0] to cells[count - 1]
+    private final int[] cells;
+    private final int size;
+    // the place of every cell in cells, or -1; null until a cell is looked
+    // up by its id
+    private int[] position;
+    private int count;
+
+    /**
+     * Index the cells of a world that have no daisy, in cell id order
+     * @param world the world
+     */
+    public CellIndex(World world) {
+        size = world.size;
+        cells = new int[size];
+        for (int cell = 0; cell < size; cell++) {
+            if (!world.hasDaisy(cell)) {
+                cells[count++] = cell;
+            }
+        }
+    }
+
+    /**
+     * Index every cell of a bare world without the world itself, in cell id
+     * order, as {@link TiledSim} seeds the stripes of its workers
+     * @param size the number of cells of the world
+     */
+    public CellIndex(int size) {
+        this.size = size;
+        cells = new int[size];
+        for (int cell = 0; cell < size; cell++) {
+            cells[cell] = cell;
+        }
+        count = size;
+    }
+
+    /**
+     * @return the number of cells in the index
+     */
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Find the cell at a rank of the array
+     * @param rank the rank, between 0 and count() exclusive
+     * @return the cell id
+     */
+    public int select(int rank) {
+        checkRank(rank);
+        return cells[rank];
+    }
+
+    /**
+     * Remove the cell at a rank of the array, moving the last cell of the
+     * array into its place
+     * @param rank the rank, between 0 and count() exclusive
+     * @return the cell id
+     */
+    public int take(int rank) {
+        checkRank(rank);
+        int cell = cells[rank];
+        int last = cells[--count];
+        cells[rank] = last;
+        if (position != null) {
+            position[last] = rank;
+            position[cell] = -1;
+        }
+        return cell;
+    }
+
+    /**
+     * @param cell the cell id
+     * @return whether the cell is in the index
+     */
+    public boolean contains(int cell) {
+        return positions()[cell] >= 0;
+    }
+
+    /**
+     * Remove a cell from the index, moving the last cell of the array into
+     * its place
+     * @param cell the cell id, which must be in the index
+     */
+    public void remove(int cell) {
+        int rank = positions()[cell];
+        if (rank < 0) {
+            throw new IllegalArgumentException("Cell " + cell + " is not indexed");
+        }
+        take(rank);
+    }
+
+    private void checkRank(int rank) {
+        if (rank < 0 || rank >= count) {
+            throw new IndexOutOfBoundsException("Rank " + rank
+                    + " of " + count + " cells");
+        }
+    }
+
+    /**
+     * Get the position map, building it on first use
+     */
+    private int[] positions() {
+        if (position == null) {
+            position = new int[size];
+            Arrays.fill(position, -1);
+            for (int rank = 0; rank < count; rank++) {
+                position[cells[rank]] = rank;
+            }
+        }
+        return position;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * CellRandom derives random numbers from a seed, the tick, a cell id and the
+ * index of the draw, instead of from a shared generator. The same draw always
+ * yields the same number no matter which thread makes it or in which order
+ * the cells are visited, which keeps parallel phases reproducible.
+ */
+public final class CellRandom {
+
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private CellRandom() {
+    }
+
+    /**
+     * Get the random 64 bits of one draw
+     * @param seed the seed of the simulation
+     * @param tick the current tick
+     * @param cell the cell id making the draw
+     * @param draw the index of the draw for that cell within the tick
+     * @return 64 random bits
+     */
+    public static long nextLong(long seed, int tick, int cell, int draw) {
+        long z = seed + 0x9E3779B97F4A7C15L * (((long) tick << 32) ^ cell);
+        z = mix(z);
+        return mix(z + 0x9E3779B97F4A7C15L * (draw + 1));
+    }
+
+    /**
+     * Get a uniform double in [0, 1) for one draw
+     * @see #nextLong(long, int, int, int)
+     */
+    public static double nextDouble(long seed, int tick, int cell, int draw) {
+        return (nextLong(seed, tick, cell, draw) >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * Get a uniform int in [0, bound) for one draw
+     * @see #nextLong(long, int, int, int)
+     */
+    public static int nextInt(long seed, int tick, int cell, int draw, int bound) {
+        return (int) (((nextLong(seed, tick, cell, draw) >>> 33) * bound) >>> 31);
+    }
+
+    /**
+     * The finalizer of SplitMix64
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
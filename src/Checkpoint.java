@@ -0,0 +1,216 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Checkpoint saves the full state of a simulation to a binary file and
+ * restores it, so that a run can continue from the saved tick, for example
+ * to run several scenarios after one shared burn-in.
+ * <br><br>
+ * The state is the grid, the current tick and the state of every random
+ * stream, so a restored simulation draws exactly the same values as the
+ * one that was saved. The configuration is not saved; a checkpoint can be
+ * restored under any configuration of the same size, and runs at the solar
+ * luminosity of that configuration, see {@link AbstractSim#replayLuminosity()}.
+ * <br><br>
+ * All numbers are little-endian:
+ * <pre>
+ *   8 bytes   magic "DAISYCHK"
+ *   int32     format version, 1
+ *   int32     X_SIZE
+ *   int32     Y_SIZE
+ *   int8      1 if the edges wrap around, 0 otherwise
+ *   int32     the next tick to run
+ *   float64   the solar luminosity when saved, for reference
+ *   int64     the seed of the synchronous demography
+ *   4 times:  int64 seed, int64 gamma of the root, setup, infection and
+ *             world random streams
+ *   N times:  int8 state, the cover code with the infection flag in the
+ *             highest bit, in cell id order
+ *   N times:  int8 age
+ *   N times:  float64 temperature
+ * </pre>
+ */
+public class Checkpoint {
+
+    public static final byte[] MAGIC = "DAISYCHK".getBytes(StandardCharsets.US_ASCII);
+    public static final int VERSION = 1;
+
+    private static final int HEADER = MAGIC.length + 4 * Integer.BYTES + 1
+            + Double.BYTES + 9 * Long.BYTES;
+    private static final int CHUNK = 1 << 20;
+
+    private Checkpoint() {
+    }
+
+    /**
+     * Get the checkpoint file named after the output name of a configuration
+     *
+     * @param params the configuration
+     * @return the file "OUTPUT_NAME.checkpoint"
+     */
+    public static File defaultFile(Params params) {
+        return new File(params.outputName() + ".checkpoint");
+    }
+
+    /**
+     * Save the state of a simulation
+     * @param sim the simulation, between two ticks
+     * @param file the file to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public static void write(Sim sim, File file) throws IOException {
+        World world = sim.world;
+        try (FileChannel channel = FileChannel.open(file.toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(CHUNK)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            buffer.put(MAGIC).putInt(VERSION)
+                    .putInt(world.xSize).putInt(world.ySize)
+                    .put((byte) (world.torus ? 1 : 0))
+                    .putInt(sim.tick).putDouble(sim.solarLuminosity)
+                    .putLong(sim.seed);
+            for (Rng random : new Rng[] {sim.random, sim.setupRandom,
+                    sim.infectionRandom, world.random}) {
+                buffer.putLong(random.getSeed()).putLong(random.getGamma());
+            }
+
+            for (int cell = 0; cell < world.size; cell++) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+                buffer.put((byte) (world.cover.get(cell)
+                        | (world.infected.is(cell) ? 0x80 : 0)));
+            }
+            for (int cell = 0; cell < world.size; cell++) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+                buffer.put(world.age.get(cell));
+            }
+            for (int cell = 0; cell < world.size; cell++) {
+                if (buffer.remaining() < Double.BYTES) {
+                    flush(channel, buffer);
+                }
+                buffer.putDouble(world.temperature.get(cell));
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer)
+                                                            throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Restore the state of a simulation, creating its world
+     * @param file the file to be read
+     * @param sim the simulation, not set up yet
+     * @param params the configuration of the simulation
+     * @throws IOException if the file cannot be read, is not a checkpoint,
+     *                     or does not fit the size of the configuration
+     */
+    public static void read(File file, Sim sim, Params params) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            MappedByteBuffer buffer = map(channel);
+            World world = sim.newWorld(readHeader(buffer, file, sim, params));
+            for (int cell = 0; cell < world.size; cell++) {
+                byte state = buffer.get();
+                byte cover = (byte) (state & 0x7F);
+                if (cover >= world.covers) {
+                    throw new IOException(file + " has an unknown cover "
+                            + cover);
+                }
+                world.cover.set(cell, cover);
+                world.infected.set(cell, state < 0);
+            }
+            for (int cell = 0; cell < world.size; cell++) {
+                world.age.set(cell, buffer.get());
+            }
+            for (int cell = 0; cell < world.size; cell++) {
+                world.temperature.set(cell, buffer.getDouble());
+            }
+            world.recountStatistics();
+            world.setSolarLuminosity(sim.solarLuminosity);
+            sim.world = world;
+        }
+    }
+
+    /**
+     * Map a checkpoint file to be read
+     * @param channel the open file
+     * @return the little-endian buffer of the whole file
+     * @throws IOException if the file cannot be mapped
+     */
+    static MappedByteBuffer map(FileChannel channel) throws IOException {
+        MappedByteBuffer buffer = channel.map(
+                FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
+    }
+
+    /**
+     * Restore the tick and the random streams of a simulation, leaving the
+     * cells to be read: the state bytes of the N cells start at the
+     * position of the buffer, their ages N bytes later and their
+     * temperatures 2N bytes later
+     * @param buffer the mapped file, at its start
+     * @param file the file, for the messages
+     * @param sim the simulation, not set up yet
+     * @param params the configuration of the simulation
+     * @return the random stream of the world
+     * @throws IOException if the file is not a checkpoint or does not fit
+     *                     the size of the configuration
+     */
+    static Rng readHeader(MappedByteBuffer buffer, File file, AbstractSim sim,
+                          Params params) throws IOException {
+        if (buffer.remaining() < HEADER) {
+            throw new IOException(file + " is not a checkpoint");
+        }
+        byte[] magic = new byte[MAGIC.length];
+        buffer.get(magic);
+        if (!Arrays.equals(magic, MAGIC)) {
+            throw new IOException(file + " is not a checkpoint");
+        }
+        int version = buffer.getInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported checkpoint version " + version);
+        }
+        int xSize = buffer.getInt();
+        int ySize = buffer.getInt();
+        boolean torus = buffer.get() != 0;
+        if (xSize != params.X_SIZE || ySize != params.Y_SIZE
+                || torus != params.TORUS) {
+            throw new IOException("The checkpoint of a " + xSize + "x"
+                    + ySize + (torus ? " wrapping" : "") + " world "
+                    + "does not fit the configured world");
+        }
+
+        sim.tick = buffer.getInt();
+        // the luminosity of the configuration replaces the saved one
+        buffer.getDouble();
+        sim.replayLuminosity();
+        sim.seed = buffer.getLong();
+        sim.random = new Rng(buffer.getLong(), buffer.getLong());
+        sim.setupRandom = new Rng(buffer.getLong(), buffer.getLong());
+        sim.infectionRandom = new Rng(buffer.getLong(), buffer.getLong());
+        Rng worldRandom = new Rng(buffer.getLong(), buffer.getLong());
+
+        if (buffer.remaining() != (long) xSize * ySize * (2 + Double.BYTES)) {
+            throw new IOException(file + " is truncated");
+        }
+        return worldRandom;
+    }
+}
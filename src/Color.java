@@ -1,4 +0,0 @@
-public enum Color {
-    WHITE,
-    BLACK
-}
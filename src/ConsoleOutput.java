@@ -0,0 +1,11 @@
+/**
+ * How the per-tick records are printed to standard output
+ */
+public enum ConsoleOutput {
+    // print every tick, holding the simulation back if the console is slow
+    BLOCK,
+    // skip the ticks the console cannot keep up with
+    DROP,
+    // print nothing per tick
+    QUIET
+}
@@ -1,28 +1,15 @@
-import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
-
-
+/**
+ * Daisy is a view over the daisy residing in one cell of the {@link World}
+ */
 public class Daisy {
-    private int age = 0;
-    private boolean isInfected;
-    private final double albedo;
-    private final Color color;
     private final Patch patch;
 
     /**
      * The constructor of Daisy
-     * @param age age of daisy
-     * @param albedo the reflection rate
-     * @param color color of daisy
      * @param patch the patch the daisy resides in
      */
-    public Daisy(int age, double albedo, Color color, Patch patch) {
-        this.age = age;
-        this.albedo = albedo;
-        this.color = color;
+    public Daisy(Patch patch) {
         this.patch = patch;
-        isInfected = false;
     }
 
     /**
@@ -36,17 +23,7 @@ public class Daisy {
      *      sprouting a new daisy with a probability.
      */
     public void checkSurvivability() {
-        if (age >= Params.MAX_AGE
-                || (Params.EXTENSION && isInfected && !survivedInfection())) {
-            patch.setDaisy(null);
-        } else {
-
-            if (Params.EXTENSION && isInfected) {
-                infectNeighbours();
-            }
-            this.age++;
-            sprout();
-        }
+        world().checkSurvivability(patch.getCell());
     }
 
     /**
@@ -55,11 +32,7 @@ public class Daisy {
      * @return false if the lethal rate is reached, otherwise true.
      */
     public boolean survivedInfection(){
-        if(!recoveredFromInfection()){
-            double survivalPossibility = new Random().nextDouble();
-            return survivalPossibility >= Params.DEATH_RATE;
-        }
-        return true;
+        return world().survivedInfection(patch.getCell());
     }
 
     /**
@@ -68,12 +41,7 @@ public class Daisy {
      * @return true if the infected daisy recovers, otherwise false.
      */
     public boolean recoveredFromInfection(){
-            double recoveryPossibility = new Random().nextDouble();
-            if(recoveryPossibility <= Params.RECOVERY_RATE){
-                isInfected = false;
-                return true;
-            }
-            return false;
+        return world().recoveredFromInfection(patch.getCell());
     }
 
     /**
@@ -81,91 +49,46 @@ public class Daisy {
      * Infect healthy neighbours of daisies based on infectious threshold
      */
     public void infectNeighbours(){
-        List<Patch> potentialInfectingPlaces =
-                patch.getNeighbors()
-                        .stream()
-                        .filter(p -> p.getDaisy() != null)
-                        .filter(p -> !p.getDaisy().isInfected())
-                        .collect(Collectors.toList());
-
-        // if there are healthy daisies nearby,
-        if(!potentialInfectingPlaces.isEmpty()){
-
-            // calculate the probability of being infected for every neighbour.
-            // if the infectious threshold is reached, it will be infected.
-            for(Patch vulnerablePatch : potentialInfectingPlaces){
-                double infectiousPossibility = new Random().nextDouble();
-                if(infectiousPossibility <= Params.INFECTION_RATE){
-                    vulnerablePatch.getDaisy().setInfected(true);
-                }
-            }
-        }
+        world().infectNeighbours(patch.getCell());
     }
 
     /**
-     * Sprout a new daisy with the same color as the current one.
+     * Sprout a new daisy of the same species as the current one.
      * The sprouting place is one of its neighbors that has no daisy inside.
      */
     public void sprout() {
-        double temperature = patch.getTemperature();
-
-        // Calculate the threshold of the sprouting possibility
-        // The threshold is determined by the temperature:
-        // temperature too low or too high -> threshold < 0
-        // temperature = 22.5 -> threshold = 1 (MAX)
-        double sproutThreshold =
-                0.1457 * temperature - 0.0032 * temperature * temperature - 0.6443;
-
-        // Generate a possibility from 0 to 1
-        double sproutPossibility = new Random().nextDouble();
-
-        // If the possibility is within the threshold, sprout
-        if (sproutPossibility < sproutThreshold) {
-            // Find the neighbors without daisies inside
-            List<Patch> potentialSproutPlaces =
-                    patch.getNeighbors()
-                            .stream()
-                            .filter(p -> p.getDaisy() == null)
-                            .collect(Collectors.toList());
-
-            // If there is a seeding place available, start sprouting
-            if(!potentialSproutPlaces.isEmpty()){
-                // Randomly select one qualified neighbor as the sprouting place
-                int placeIndex = new Random().nextInt(potentialSproutPlaces.size());
-                Patch sproutPlace = potentialSproutPlaces.get(placeIndex);
-                sproutPlace.setDaisy(sproutDaisy(color, sproutPlace));
-            }
-        }
+        world().sprout(patch.getCell());
     }
 
     /**
-     * Sprout a chosen color of daisy
-     * @param color the color of the daisy
+     * Sprout a chosen species of daisy
+     * @param species the species of the daisy
      * @param patch the patch this daisy resides in
-     * @return an instance of Daisy
+     * @return a view of the new daisy
      */
-    public static Daisy sproutDaisy(Color color, Patch patch){
-        if(color == Color.BLACK){
-            return new Daisy(0, Params.ALBEDO_OF_BLACKS, Color.BLACK, patch);
-        }else{
-            return new Daisy(0, Params.ALBEDO_OF_WHITES, Color.WHITE, patch);
-        }
+    public static Daisy sproutDaisy(Species species, Patch patch){
+        patch.getWorld().placeDaisy(patch.getCell(), species, 0);
+        return new Daisy(patch);
+    }
+
+    private World world() {
+        return patch.getWorld();
     }
 
     public void setAge(int age) {
-        this.age = age;
+        world().age.set(patch.getCell(), (byte) age);
     }
 
     public int getAge() {
-        return age;
+        return world().age.get(patch.getCell());
     }
 
     public double getAlbedo() {
-        return albedo;
+        return world().albedoOf(world().cover.get(patch.getCell()));
     }
 
-    public Color getColor() {
-        return color;
+    public Species getSpecies() {
+        return world().speciesOf(world().cover.get(patch.getCell()));
     }
 
     public Patch getPatch() {
@@ -173,10 +96,10 @@ public class Daisy {
     }
 
     public boolean isInfected() {
-        return isInfected;
+        return world().infected.is(patch.getCell());
     }
 
     public void setInfected(boolean infected) {
-        isInfected = infected;
+        world().setInfected(patch.getCell(), infected);
     }
 }
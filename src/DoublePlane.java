@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * DoublePlane holds one double for every cell of a world, the temperatures
+ * of {@link World}. The plane lives on the heap, or in the file of a
+ * {@link WorldMap} when WORLD_MAP is on, so that other processes map the
+ * temperatures the simulation works on.
+ * <br><br>
+ * The heap plane is the one almost every run uses, so its methods are
+ * plain array accesses that the JIT inlines wherever it is the only plane
+ * loaded.
+ */
+public abstract class DoublePlane {
+
+    /** The number of cells */
+    final int size;
+
+    DoublePlane(int size) {
+        this.size = size;
+    }
+
+    /**
+     * Make a plane on the heap
+     * @param size the number of cells
+     * @return the plane, all 0
+     */
+    public static DoublePlane onHeap(int size) {
+        return new Heap(size);
+    }
+
+    /**
+     * @param cell the cell id
+     * @return the value of the cell
+     */
+    public abstract double get(int cell);
+
+    /**
+     * @param cell the cell id
+     * @param value the new value of the cell
+     */
+    public abstract void set(int cell, double value);
+
+    /**
+     * Copy the values of a range of cells into an array
+     * @param from the first cell
+     * @param values the array
+     * @param offset the index in the array of the first value
+     * @param length the number of cells
+     */
+    public void get(int from, double[] values, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            values[offset + i] = get(from + i);
+        }
+    }
+
+    /**
+     * Set the values of a range of cells from an array
+     * @param from the first cell
+     * @param values the array
+     * @param offset the index in the array of the first value
+     * @param length the number of cells
+     */
+    public void put(int from, double[] values, int offset, int length) {
+        for (int i = 0; i < length; i++) {
+            set(from + i, values[offset + i]);
+        }
+    }
+
+    /**
+     * @param value the new value of every cell
+     */
+    public void fill(double value) {
+        for (int cell = 0; cell < size; cell++) {
+            set(cell, value);
+        }
+    }
+
+    /**
+     * Copy every value of a plane of the same size
+     * @param other the plane
+     */
+    public void copyFrom(DoublePlane other) {
+        double[] values = other.array();
+        if (values != null) {
+            put(0, values, 0, size);
+        } else {
+            for (int cell = 0; cell < size; cell++) {
+                set(cell, other.get(cell));
+            }
+        }
+    }
+
+    /**
+     * Get the array the plane is kept in, so that the temperature kernels
+     * can run over it
+     * @return the array, or null if the plane is not on the heap
+     */
+    double[] array() {
+        return null;
+    }
+
+    /**
+     * The plane on the heap, in an array
+     */
+    static final class Heap extends DoublePlane {
+
+        private final double[] values;
+
+        Heap(int size) {
+            super(size);
+            values = new double[size];
+        }
+
+        @Override
+        public double get(int cell) {
+            return values[cell];
+        }
+
+        @Override
+        public void set(int cell, double value) {
+            values[cell] = value;
+        }
+
+        @Override
+        public void get(int from, double[] values, int offset, int length) {
+            System.arraycopy(this.values, from, values, offset, length);
+        }
+
+        @Override
+        public void put(int from, double[] values, int offset, int length) {
+            System.arraycopy(values, offset, this.values, from, length);
+        }
+
+        @Override
+        public void fill(double value) {
+            Arrays.fill(values, value);
+        }
+
+        @Override
+        double[] array() {
+            return values;
+        }
+    }
+}
@@ -0,0 +1,9 @@
+/**
+ * How a simulation evolves its world
+ */
+public enum Engine {
+    // every patch of the grid, see Sim
+    GRID,
+    // the expected fractions and mean temperatures only, see MeanFieldSim
+    MEAN_FIELD
+}
@@ -0,0 +1,83 @@
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Ensemble runs ENSEMBLE_REPLICATES replicates of the configuration in
+ * "config.properties", several at once in one JVM, and aggregates their
+ * records tick by tick into one csv file, "OUTPUT_NAME-ensemble.csv", as
+ * described by {@link EnsembleStatistics}.
+ * <br><br>
+ * Every replicate has its own seed, drawn from SEED, so an ensemble is
+ * reproduced by its SEED. The replicates only write their own csv files,
+ * "OUTPUT_NAME-replicate-i.csv", if ENSEMBLE_KEEP_REPLICATES is set.
+ * They print nothing to the console, and cannot be tiled, restored from a
+ * checkpoint or streamed.
+ */
+public class Ensemble {
+
+    public static void main(String[] args) throws Exception {
+        Params base = Params.configParams();
+        if (base.TILES != 0 || !base.RESTORE_FROM.isEmpty()
+                || base.STREAM_PORT != 0) {
+            throw new Exception("The replicates of an ensemble run in this"
+                    + " JVM from their own seeds, so TILES, RESTORE_FROM and"
+                    + " STREAM_PORT should be off");
+        }
+        System.out.println("Seed: " + base.SEED);
+        System.out.println("Running " + base.ENSEMBLE_REPLICATES + " replicates");
+
+        EnsembleStatistics statistics = new EnsembleStatistics(
+                base.ITERATION_LIMIT, base.ENSEMBLE_QUANTILES, base.metrics());
+        Rng seeds = new Rng(base.SEED);
+
+        int threads = base.SWEEP_THREADS == 0
+                ? Runtime.getRuntime().availableProcessors()
+                : base.SWEEP_THREADS;
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> runs = new ArrayList<>();
+        for (int i = 0; i < base.ENSEMBLE_REPLICATES; i++) {
+            Params replicate = base
+                    .with("SEED", String.valueOf(seeds.nextLong()))
+                    .with("CONSOLE_OUTPUT", ConsoleOutput.QUIET.name())
+                    .with("OUTPUT_NAME", base.outputName() + "-replicate-" + i);
+            runs.add(pool.submit(() -> {
+                List<RecordWriter> files = new ArrayList<>();
+                files.add(statistics.replicateWriter());
+                if (replicate.ENSEMBLE_KEEP_REPLICATES) {
+                    files.add(new WriterCSV(WriterCSV.defaultFile(replicate),
+                            replicate.metrics()));
+                }
+                OutputPipeline output = new OutputPipeline(files,
+                        ConsoleOutput.QUIET, replicate.OUTPUT_BUFFER,
+                        replicate.metrics());
+                try {
+                    Simulation sim = Simulation.create(replicate, output);
+                    sim.setup();
+                    sim.go();
+                } finally {
+                    output.close();
+                }
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        try {
+            for (Future<?> run : runs) {
+                run.get();
+            }
+        } catch (ExecutionException e) {
+            pool.shutdownNow();
+            throw new Exception("A replicate failed", e.getCause());
+        }
+
+        File file = new File(base.outputName() + "-ensemble.csv");
+        statistics.writeCSV(file);
+        System.out.println("Written: " + file);
+    }
+}
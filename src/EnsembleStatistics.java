@@ -0,0 +1,271 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * EnsembleStatistics aggregates the records of many replicates of one
+ * configuration tick by tick, as they are produced, without keeping the
+ * records themselves.
+ * <br><br>
+ * For every tick and every metric it keeps the number of values, their mean
+ * and sum of squared deviations (Welford's algorithm), their minimum and
+ * maximum, and an estimate of a few quantiles by the P-square algorithm of
+ * Jain and Chlamtac, which tracks five markers per quantile. The memory used
+ * is proportional to the number of ticks and metrics, whatever the number of
+ * replicates. Values that are NaN, the local temperature of extinct daisies,
+ * are left out.
+ * <br><br>
+ * Replicates add their records concurrently. Since floating point sums and
+ * the quantile markers depend on the order the values arrive in, the mean
+ * and variance may differ in the last digits between two runs of the same
+ * ensemble and the quantile estimates slightly more.
+ */
+public class EnsembleStatistics {
+
+    // number of P-square markers per quantile
+    private static final int MARKERS = 5;
+
+    private final int ticks;
+    private final double[] quantiles;
+    private final Metrics layout;
+    private final int metrics;
+
+    // one entry per tick and metric, metric m of tick t at t * metrics + m
+    private final int[] count;
+    private final double[] mean;
+    private final double[] squares;
+    private final double[] min;
+    private final double[] max;
+    // the heights and positions of the markers of every quantile,
+    // one run of MARKERS entries per tick, metric and quantile
+    private final double[] heights;
+    private final int[] positions;
+
+    // records of different ticks are added under different locks
+    private final Object[] locks = new Object[64];
+
+    /**
+     * Allocate the statistics of an ensemble
+     * @param ticks the number of ticks of every replicate
+     * @param quantiles the probabilities of the quantiles to be estimated
+     * @param layout the layout of the records of the replicates
+     */
+    public EnsembleStatistics(int ticks, double[] quantiles, Metrics layout) {
+        this.ticks = ticks;
+        this.quantiles = quantiles.clone();
+        this.layout = layout;
+        this.metrics = layout.WIDTH - 1;
+        int cells = ticks * metrics;
+        count = new int[cells];
+        mean = new double[cells];
+        squares = new double[cells];
+        min = new double[cells];
+        max = new double[cells];
+        Arrays.fill(min, Double.POSITIVE_INFINITY);
+        Arrays.fill(max, Double.NEGATIVE_INFINITY);
+        heights = new double[cells * quantiles.length * MARKERS];
+        positions = new int[cells * quantiles.length * MARKERS];
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new Object();
+        }
+    }
+
+    /**
+     * Get a writer adding the records of one replicate to the statistics.
+     * Closing it does nothing, the statistics are written by
+     * {@link #writeCSV(File)} once every replicate is done.
+     * @return the writer
+     */
+    public RecordWriter replicateWriter() {
+        return new RecordWriter() {
+            @Override
+            public void write(double[] record, int offset) {
+                add(record, offset);
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Add the record of one tick of a replicate
+     * @param record the buffer holding the record
+     * @param offset the index of the first value of the record
+     */
+    public void add(double[] record, int offset) {
+        int tick = (int) record[offset + Metrics.TICK] - 1;
+        synchronized (locks[tick % locks.length]) {
+            for (int metric = 0; metric < metrics; metric++) {
+                double value = record[offset + 1 + metric];
+                if (!Double.isNaN(value)) {
+                    add(tick * metrics + metric, value);
+                }
+            }
+        }
+    }
+
+    private void add(int cell, double value) {
+        int n = ++count[cell];
+        double delta = value - mean[cell];
+        mean[cell] += delta / n;
+        squares[cell] += delta * (value - mean[cell]);
+        min[cell] = Math.min(min[cell], value);
+        max[cell] = Math.max(max[cell], value);
+        for (int q = 0; q < quantiles.length; q++) {
+            addToQuantile((cell * quantiles.length + q) * MARKERS,
+                    quantiles[q], n, value);
+        }
+    }
+
+    /**
+     * Update the markers of one quantile with the n-th value
+     */
+    private void addToQuantile(int base, double p, int n, double value) {
+        // the first values are kept as they are
+        if (n <= MARKERS) {
+            heights[base + n - 1] = value;
+            if (n == MARKERS) {
+                Arrays.sort(heights, base, base + MARKERS);
+                for (int i = 0; i < MARKERS; i++) {
+                    positions[base + i] = i + 1;
+                }
+            }
+            return;
+        }
+
+        // find the cell of the value, stretching the extreme markers
+        int k;
+        if (value < heights[base]) {
+            heights[base] = value;
+            k = 0;
+        } else if (value >= heights[base + 4]) {
+            heights[base + 4] = value;
+            k = 3;
+        } else {
+            k = 0;
+            while (value >= heights[base + k + 1]) {
+                k++;
+            }
+        }
+        for (int i = k + 1; i < MARKERS; i++) {
+            positions[base + i]++;
+        }
+
+        // move the middle markers that are off their desired position
+        for (int i = 1; i < MARKERS - 1; i++) {
+            double desired = 1 + (n - 1) * (i == 1 ? p / 2 : i == 2 ? p : (1 + p) / 2);
+            double offset = desired - positions[base + i];
+            int below = positions[base + i - 1] - positions[base + i];
+            int above = positions[base + i + 1] - positions[base + i];
+            if ((offset >= 1 && above > 1) || (offset <= -1 && below < -1)) {
+                int d = offset > 0 ? 1 : -1;
+                double height = parabolic(base + i, d);
+                if (heights[base + i - 1] < height && height < heights[base + i + 1]) {
+                    heights[base + i] = height;
+                } else {
+                    heights[base + i] += d * (heights[base + i + d] - heights[base + i])
+                            / (positions[base + i + d] - positions[base + i]);
+                }
+                positions[base + i] += d;
+            }
+        }
+    }
+
+    /**
+     * The piecewise-parabolic prediction of the height of a marker moved by d
+     */
+    private double parabolic(int i, int d) {
+        double q = heights[i];
+        double qBelow = heights[i - 1];
+        double qAbove = heights[i + 1];
+        int n = positions[i];
+        int nBelow = positions[i - 1];
+        int nAbove = positions[i + 1];
+        return q + (double) d / (nAbove - nBelow)
+                * ((n - nBelow + d) * (qAbove - q) / (nAbove - n)
+                + (nAbove - n - d) * (q - qBelow) / (n - nBelow));
+    }
+
+    /**
+     * Get the estimate of a quantile, the nearest rank of the values while
+     * fewer than five values are known
+     */
+    private double quantile(int cell, int q) {
+        int n = count[cell];
+        int base = (cell * quantiles.length + q) * MARKERS;
+        if (n == 0) {
+            return Double.NaN;
+        }
+        if (n >= MARKERS) {
+            return heights[base + 2];
+        }
+        double[] values = Arrays.copyOfRange(heights, base, base + n);
+        Arrays.sort(values);
+        int rank = (int) Math.ceil(quantiles[q] * n);
+        return values[Math.max(0, rank - 1)];
+    }
+
+    /**
+     * @return the names of the columns of the csv file
+     */
+    public String[] columnNames() {
+        String[] names = layout.columnNames();
+        String[] columns = new String[1 + metrics * (5 + quantiles.length)];
+        int column = 0;
+        columns[column++] = names[Metrics.TICK];
+        for (int metric = 0; metric < metrics; metric++) {
+            String name = names[1 + metric];
+            columns[column++] = name + "_count";
+            columns[column++] = name + "_mean";
+            columns[column++] = name + "_variance";
+            columns[column++] = name + "_min";
+            columns[column++] = name + "_max";
+            for (double p : quantiles) {
+                columns[column++] = name + "_q" + p;
+            }
+        }
+        return columns;
+    }
+
+    /**
+     * Write the statistics as csv, one row per tick and for every metric
+     * its count, mean, sample variance, minimum, maximum and quantiles
+     *
+     * @param file the csv file to be written
+     * @throws IOException if an I/O error occurs
+     */
+    public void writeCSV(File file) throws IOException {
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(file, false))) {
+            bw.write(String.join(",", columnNames()));
+            bw.newLine();
+            for (int tick = 0; tick < ticks; tick++) {
+                bw.write(String.valueOf(tick + 1));
+                for (int metric = 0; metric < metrics; metric++) {
+                    int cell = tick * metrics + metric;
+                    int n = count[cell];
+                    bw.write(',');
+                    bw.write(String.valueOf(n));
+                    writeValue(bw, n > 0 ? mean[cell] : Double.NaN);
+                    writeValue(bw, n > 1 ? squares[cell] / (n - 1) : Double.NaN);
+                    writeValue(bw, n > 0 ? min[cell] : Double.NaN);
+                    writeValue(bw, n > 0 ? max[cell] : Double.NaN);
+                    for (int q = 0; q < quantiles.length; q++) {
+                        writeValue(bw, quantile(cell, q));
+                    }
+                }
+                bw.newLine();
+            }
+        }
+    }
+
+    private static void writeValue(BufferedWriter bw, double value)
+                                                            throws IOException {
+        bw.write(',');
+        bw.write(String.valueOf(value));
+    }
+
+}
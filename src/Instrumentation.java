@@ -0,0 +1,278 @@
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.EventType;
+
+/**
+ * Instrumentation times the phases of every tick of a simulation and
+ * counts its births, deaths, infections and output bytes, when
+ * INSTRUMENTATION is on. A simulation without it holds no Instrumentation
+ * and only checks for null between the phases.
+ * <br><br>
+ * The time of every phase goes into a histogram of power of two buckets
+ * of nanoseconds, so the memory used does not grow with the run. The
+ * values are published three ways: a {@link TickEvent} per tick for the
+ * Java Flight Recorder, live values over JMX through
+ * {@link InstrumentationMXBean}, and a summary printed to standard error
+ * at the end of the run.
+ */
+public class Instrumentation implements InstrumentationMXBean {
+
+    private static final TickPhase[] PHASES = TickPhase.values();
+    // bucket b holds the times from 2^(b-1) to 2^b - 1 nanoseconds
+    private static final int BUCKETS = Long.SIZE + 1;
+    private static final EventType TICK_EVENT =
+            EventType.getEventType(TickEvent.class);
+
+    private final String name;
+    private ObjectName objectName;
+
+    // the time of every phase of the current tick
+    private final long[] phaseNanos = new long[PHASES.length];
+    private long lapStart;
+    // the event of the current tick, null if no recording wants it
+    private TickEvent event;
+    private long previousBirths;
+    private long previousDeaths;
+    private long previousInfections;
+    private long previousOutputBytes;
+
+    // totals and histograms over all ticks, read by JMX
+    private final AtomicLongArray totalNanos = new AtomicLongArray(PHASES.length);
+    private final AtomicLongArray histogram =
+            new AtomicLongArray(PHASES.length * BUCKETS);
+    private final long runStart = System.nanoTime();
+    private volatile long runNanos;
+    private volatile int ticks;
+    private volatile int tick;
+    private volatile int population;
+    private volatile double globalTemperature;
+    private volatile long births;
+    private volatile long deaths;
+    private volatile long infections;
+    private volatile long outputBytes;
+
+    /**
+     * Start the instrumentation of a simulation and register it over JMX
+     * @param name the name of the simulation, its output name
+     */
+    public Instrumentation(String name) {
+        this.name = name;
+        try {
+            ObjectName objectName = new ObjectName("daisyworld:type=Simulation,name="
+                    + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException e) {
+            System.err.println("Cannot register the metrics of " + name
+                    + " over JMX: " + e);
+        }
+    }
+
+    /**
+     * Mark the start of a tick
+     */
+    void startTick() {
+        if (TICK_EVENT.isEnabled()) {
+            event = new TickEvent();
+            event.begin();
+        }
+        lapStart = System.nanoTime();
+    }
+
+    /**
+     * Add the time since the last lap, or since the start of the tick, to
+     * a phase
+     * @param phase the phase that has just finished
+     */
+    void lap(TickPhase phase) {
+        long now = System.nanoTime();
+        phaseNanos[phase.ordinal()] += now - lapStart;
+        lapStart = now;
+    }
+
+    /**
+     * Mark the end of a tick and publish its values
+     * @param tick the tick
+     * @param births the daisies born since the start of the run
+     * @param deaths the daisies died since the start of the run
+     * @param infections the daisies infected since the start of the run
+     * @param outputBytes the bytes written to the output files so far
+     * @param population the number of daisies
+     * @param globalTemperature the global temperature
+     */
+    void endTick(int tick, long births, long deaths, long infections,
+                 long outputBytes, int population, double globalTemperature) {
+        for (int p = 0; p < PHASES.length; p++) {
+            totalNanos.addAndGet(p, phaseNanos[p]);
+            histogram.incrementAndGet(p * BUCKETS + bucket(phaseNanos[p]));
+        }
+
+        if (event != null) {
+            event.simulation = name;
+            event.tick = tick;
+            event.temperature = phaseNanos[TickPhase.TEMPERATURE.ordinal()];
+            event.diffusion = phaseNanos[TickPhase.DIFFUSION.ordinal()];
+            event.demography = phaseNanos[TickPhase.DEMOGRAPHY.ordinal()];
+            event.infection = phaseNanos[TickPhase.INFECTION.ordinal()];
+            event.output = phaseNanos[TickPhase.OUTPUT.ordinal()];
+            event.births = births - previousBirths;
+            event.deaths = deaths - previousDeaths;
+            event.infections = infections - previousInfections;
+            event.outputBytes = outputBytes - previousOutputBytes;
+            event.population = population;
+            event.commit();
+            event = null;
+        }
+        previousBirths = births;
+        previousDeaths = deaths;
+        previousInfections = infections;
+        previousOutputBytes = outputBytes;
+        for (int p = 0; p < PHASES.length; p++) {
+            phaseNanos[p] = 0;
+        }
+
+        this.tick = tick;
+        this.births = births;
+        this.deaths = deaths;
+        this.infections = infections;
+        this.outputBytes = outputBytes;
+        this.population = population;
+        this.globalTemperature = globalTemperature;
+        this.runNanos = System.nanoTime() - runStart;
+        this.ticks++;
+    }
+
+    private static int bucket(long nanos) {
+        return Long.SIZE - Long.numberOfLeadingZeros(nanos);
+    }
+
+    /**
+     * Unregister from JMX and print the summary of the run to standard error
+     */
+    void close() {
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException e) {
+                // already gone
+            }
+        }
+        System.err.println(summary());
+    }
+
+    /**
+     * @return the mean, median and 99th percentile time of every phase and
+     * the counts of the run, as a table
+     */
+    public String summary() {
+        StringBuilder summary = new StringBuilder();
+        summary.append(String.format(Locale.ROOT, "%s: %d ticks, %.1f ticks/s,"
+                        + " %d births, %d deaths, %d infections,"
+                        + " %d output bytes written so far%n",
+                name, ticks, getTicksPerSecond(), births, deaths, infections,
+                outputBytes));
+        summary.append(String.format(Locale.ROOT, "%-12s %12s %12s %12s %10s%n",
+                "phase", "mean us", "p50 us <=", "p99 us <=", "total s"));
+        for (TickPhase phase : PHASES) {
+            int p = phase.ordinal();
+            summary.append(String.format(Locale.ROOT,
+                    "%-12s %12.1f %12.1f %12.1f %10.3f%n",
+                    phase.name().toLowerCase(Locale.ROOT), meanMicros(p),
+                    quantileMicros(p, 0.5), quantileMicros(p, 0.99),
+                    totalNanos.get(p) / 1e9));
+        }
+        return summary.toString();
+    }
+
+    private double meanMicros(int p) {
+        int n = ticks;
+        return n == 0 ? Double.NaN : totalNanos.get(p) / 1e3 / n;
+    }
+
+    /**
+     * @return the upper bound of the bucket holding a quantile of the
+     * times of a phase, in microseconds
+     */
+    private double quantileMicros(int p, double quantile) {
+        long n = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            n += histogram.get(p * BUCKETS + b);
+        }
+        if (n == 0) {
+            return Double.NaN;
+        }
+        long rank = (long) Math.ceil(quantile * n);
+        long count = 0;
+        for (int b = 0; b < BUCKETS; b++) {
+            count += histogram.get(p * BUCKETS + b);
+            if (count >= rank) {
+                return b == 0 ? 0 : Math.scalb(1.0, b) / 1e3;
+            }
+        }
+        return Double.NaN;
+    }
+
+    @Override
+    public int getTick() {
+        return tick;
+    }
+
+    @Override
+    public int getPopulation() {
+        return population;
+    }
+
+    @Override
+    public double getGlobalTemperature() {
+        return globalTemperature;
+    }
+
+    @Override
+    public double getTicksPerSecond() {
+        long nanos = runNanos;
+        return nanos == 0 ? 0 : ticks * 1e9 / nanos;
+    }
+
+    @Override
+    public long getBirths() {
+        return births;
+    }
+
+    @Override
+    public long getDeaths() {
+        return deaths;
+    }
+
+    @Override
+    public long getInfections() {
+        return infections;
+    }
+
+    @Override
+    public long getOutputBytes() {
+        return outputBytes;
+    }
+
+    @Override
+    public Map<String, Double> getMeanPhaseMicros() {
+        Map<String, Double> means = new LinkedHashMap<>();
+        for (TickPhase phase : PHASES) {
+            means.put(phase.name(), meanMicros(phase.ordinal()));
+        }
+        return means;
+    }
+
+    @Override
+    public Map<String, Double> getP99PhaseMicros() {
+        Map<String, Double> quantiles = new LinkedHashMap<>();
+        for (TickPhase phase : PHASES) {
+            quantiles.put(phase.name(), quantileMicros(phase.ordinal(), 0.99));
+        }
+        return quantiles;
+    }
+}
@@ -0,0 +1,42 @@
+import java.util.Map;
+
+/**
+ * The live values of a running simulation, registered over JMX by
+ * {@link Instrumentation} as "daisyworld:type=Simulation,name=OUTPUT_NAME"
+ * so that they can be watched with JConsole or any JMX client.
+ */
+public interface InstrumentationMXBean {
+
+    /** @return the last tick completed */
+    int getTick();
+
+    /** @return the number of daisies after the last tick */
+    int getPopulation();
+
+    /** @return the global temperature after the last tick */
+    double getGlobalTemperature();
+
+    /** @return the ticks completed per second, over the whole run */
+    double getTicksPerSecond();
+
+    /** @return the daisies born since the start of the run */
+    long getBirths();
+
+    /** @return the daisies died since the start of the run */
+    long getDeaths();
+
+    /** @return the daisies infected since the start of the run */
+    long getInfections();
+
+    /** @return the output bytes written so far, as of the last tick */
+    long getOutputBytes();
+
+    /** @return the mean time of every phase of a tick, in microseconds */
+    Map<String, Double> getMeanPhaseMicros();
+
+    /**
+     * @return an upper bound of the 99th percentile of the time of every
+     * phase of a tick, in microseconds
+     */
+    Map<String, Double> getP99PhaseMicros();
+}
@@ -0,0 +1,11 @@
+/**
+ * Which implementation of {@link TemperatureKernel} a simulation runs on
+ */
+public enum KernelType {
+    // the vector kernel if it is available, otherwise the scalar one
+    AUTO,
+    // plain loops over the cells
+    SCALAR,
+    // the Java Vector API, falling back to SCALAR if it is not available
+    VECTOR
+}
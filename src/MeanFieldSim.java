@@ -0,0 +1,328 @@
+/**
+ * MeanFieldSim is the mean-field approximation of a simulation, selected by
+ * ENGINE = MEAN_FIELD: instead of the patches of the grid it evolves the
+ * expected number of daisies of every species and age, healthy and
+ * infected, and the temperature sum of every cover code, at a cost per
+ * tick that does not depend on the size of the world. It writes the same
+ * records as {@link Sim}, with the counts rounded to whole daisies.
+ * <br><br>
+ * A tick runs the phases of the grid on the aggregates:
+ * <ul>
+ *   <li>every cover is heated as by {@link World#localHeating(double, double)},
+ *   to the mean of its temperature and its local heating;</li>
+ *   <li>diffusion keeps half the temperature of a patch and spreads the
+ *   other half over neighbors taken to be the mean of the world;</li>
+ *   <li>daisies die at Params.MAX_AGE, infected daisies recover or die by
+ *   RECOVERY_RATE and DEATH_RATE, healthy daisies are infected by each of
+ *   their neighbors that is infected with INFECTION_RATE, and every
+ *   surviving daisy sprouts with the probability given by
+ *   {@link World#sproutThreshold(double)} at the mean temperature of its
+ *   species, times the probability that one of its neighbors is bare.</li>
+ * </ul>
+ * The neighbors of a patch are drawn independently from the whole world,
+ * so the approximation misses the clusters the daisies form on the grid;
+ * the number of neighbors follows the edges of a bounded world. See
+ * bench/MeanFieldComparison.java for its error against the grid. It only
+ * holds at a constant solar luminosity: a ramp drives the grid through
+ * die-offs and regrowth from the surviving clusters, which it misses by
+ * several times, so Params rejects it in RAMP_UP_RAMP_DOWN mode.
+ * <br><br>
+ * It has no grid, so it has nothing to clone, save or restore.
+ */
+public class MeanFieldSim extends AbstractSim {
+
+    private static final int AGES = Params.MAX_AGE + 1;
+
+    private final int species;
+    private final int size;
+    private final double[] albedo;
+    private final double[] heating;
+    // the fraction of patches with 1 to 8 neighbors, by number of neighbors
+    private final double[] neighborWeights = new double[9];
+
+    // the expected daisies of species s and age a at s * AGES + a
+    private final double[] healthy;
+    private final double[] infected;
+    // the expected patches and the temperature sum of every cover code
+    private final double[] count;
+    private final double[] temperatureSum;
+    // the mean temperature and then the sprouts of every species, within
+    // a tick
+    private final double[] temperature;
+    private final double[] sprouts;
+    private double births;
+    private double deaths;
+    private double infections;
+
+    /**
+     * The constructor of MeanFieldSim
+     * @param params the configuration of this simulation
+     * @param output the pipeline the record of every tick is published to
+     */
+    public MeanFieldSim(Params params, OutputPipeline output) {
+        super(params, output);
+        species = params.SPECIES.length;
+        size = params.X_SIZE * params.Y_SIZE;
+        albedo = new double[species + 1];
+        heating = new double[species + 1];
+        albedo[World.EMPTY] = params.ALBEDO_OF_SURFACE;
+        for (Species s : params.SPECIES) {
+            albedo[World.coverOf(s)] = s.getAlbedo();
+        }
+        healthy = new double[species * AGES];
+        infected = new double[species * AGES];
+        count = new double[species + 1];
+        temperatureSum = new double[species + 1];
+        temperature = new double[species];
+        sprouts = new double[species];
+        countNeighbors();
+    }
+
+    /**
+     * Work out the fraction of patches with each number of neighbors, from
+     * the patches with 1, 2 or 3 neighboring rows and columns
+     */
+    private void countNeighbors() {
+        if (params.TORUS) {
+            neighborWeights[8] = 1;
+            return;
+        }
+        double[] rows = neighborLines(params.X_SIZE);
+        double[] columns = neighborLines(params.Y_SIZE);
+        for (int r = 1; r <= 3; r++) {
+            for (int c = 1; c <= 3; c++) {
+                if (r * c > 1) {
+                    neighborWeights[r * c - 1] += rows[r] * columns[c];
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the fraction of the lines of a bounded dimension with 1, 2 or
+     * 3 lines around them, themselves included
+     */
+    private static double[] neighborLines(int length) {
+        double[] lines = new double[4];
+        if (length == 1) {
+            lines[1] = 1;
+        } else {
+            lines[2] = 2.0 / length;
+            lines[3] = (length - 2.0) / length;
+        }
+        return lines;
+    }
+
+    /**
+     * Seed the expected daisies of every species, with their ages spread
+     * evenly as by {@link Sim#setDaisiesWithRandomAge()}, on a world at
+     * temperature 0
+     */
+    @Override
+    public void setup() {
+        for (Species s : params.SPECIES) {
+            double seeded = Math.round(s.getStartPercentage() * size);
+            for (int a = 0; a < Params.MAX_AGE; a++) {
+                healthy[s.getIndex() * AGES + a] = seeded / Params.MAX_AGE;
+            }
+        }
+        countCovers();
+    }
+
+    private void countCovers() {
+        double daisies = 0;
+        for (int s = 0; s < species; s++) {
+            double n = 0;
+            for (int a = 0; a < AGES; a++) {
+                n += healthy[s * AGES + a] + infected[s * AGES + a];
+            }
+            count[s + 1] = n;
+            daisies += n;
+        }
+        count[World.EMPTY] = size - daisies;
+    }
+
+    /**
+     * Heat, diffuse and let the daisies age, die and sprout, on the
+     * aggregates of the world
+     */
+    @Override
+    void advance() {
+        for (int c = 0; c <= species; c++) {
+            heating[c] = World.localHeating(albedo[c], solarLuminosity);
+            temperatureSum[c] = (temperatureSum[c] + count[c] * heating[c]) / 2;
+        }
+        lap(TickPhase.TEMPERATURE);
+
+        double mean = 0;
+        for (int c = 0; c <= species; c++) {
+            mean += temperatureSum[c];
+        }
+        mean /= size;
+        for (int c = 0; c <= species; c++) {
+            temperatureSum[c] = 0.5 * temperatureSum[c] + 0.5 * count[c] * mean;
+        }
+        lap(TickPhase.DIFFUSION);
+
+        demography();
+        lap(TickPhase.DEMOGRAPHY);
+    }
+
+    private void demography() {
+        // the daisies infecting their neighbors are those staying infected
+        double infecting = 0;
+        if (params.EXTENSION) {
+            for (int i = 0; i < infected.length; i++) {
+                if (i % AGES < Params.MAX_AGE) {
+                    infecting += infected[i];
+                }
+            }
+            infecting *= (1 - params.RECOVERY_RATE) * (1 - params.DEATH_RATE);
+        }
+        double infection =
+                1 - noneOfNeighbors(params.INFECTION_RATE * infecting / size);
+
+        double bare = count[World.EMPTY];
+        double bareSum = temperatureSum[World.EMPTY];
+        for (int s = 0; s < species; s++) {
+            int first = s * AGES;
+            temperature[s] = count[s + 1] > 0
+                    ? temperatureSum[s + 1] / count[s + 1] : 0;
+            sprouts[s] = 0;
+            double died = healthy[first + Params.MAX_AGE]
+                    + infected[first + Params.MAX_AGE];
+            for (int a = Params.MAX_AGE; a > 0; a--) {
+                double h = healthy[first + a - 1];
+                double i = infected[first + a - 1];
+                if (params.EXTENSION) {
+                    double recovered = i * params.RECOVERY_RATE;
+                    double dying = (i - recovered) * params.DEATH_RATE;
+                    double caught = h * infection;
+                    died += dying;
+                    infections += caught;
+                    h += recovered - caught;
+                    i += caught - recovered - dying;
+                }
+                healthy[first + a] = h;
+                infected[first + a] = i;
+                sprouts[s] += h + i;
+            }
+            healthy[first] = 0;
+            infected[first] = 0;
+            deaths += died;
+            bare += died;
+            bareSum += died * temperature[s];
+            temperatureSum[s + 1] -= died * temperature[s];
+        }
+
+        // every survivor sprouts onto a bare neighbor if it has one
+        double bareTemperature = bare > 0 ? bareSum / bare : 0;
+        double sprouting = 1 - noneOfNeighbors(bare / size);
+        double born = 0;
+        for (int s = 0; s < species; s++) {
+            sprouts[s] *= Math.min(1, Math.max(0,
+                    World.sproutThreshold(temperature[s]))) * sprouting;
+            born += sprouts[s];
+        }
+        // no more daisies sprout than there are bare patches
+        double scale = born > bare ? bare / born : 1;
+        for (int s = 0; s < species; s++) {
+            double sprouted = sprouts[s] * scale;
+            healthy[s * AGES] = sprouted;
+            temperatureSum[s + 1] += sprouted * bareTemperature;
+            births += sprouted;
+        }
+        temperatureSum[World.EMPTY] = bareSum - born * scale * bareTemperature;
+        countCovers();
+    }
+
+    /**
+     * @param p the probability that a single neighbor does something
+     * @return the probability that none of the neighbors of a patch does
+     */
+    private double noneOfNeighbors(double p) {
+        double none = 0;
+        for (int k = 1; k <= 8; k++) {
+            if (neighborWeights[k] > 0) {
+                none += neighborWeights[k] * Math.pow(1 - p, k);
+            }
+        }
+        return none;
+    }
+
+    /**
+     * [Extension]:
+     * Infect one healthy daisy, spread over the species and ages as a
+     * random pick would be on the grid. If no daisy is healthy, do nothing.
+     */
+    @Override
+    public void infectRandomly() {
+        double total = 0;
+        for (double h : healthy) {
+            total += h;
+        }
+        if (Math.round(total) == 0) {
+            return;
+        }
+        double fraction = Math.min(1, 1 / total);
+        for (int i = 0; i < healthy.length; i++) {
+            double caught = healthy[i] * fraction;
+            healthy[i] -= caught;
+            infected[i] += caught;
+        }
+        infections += Math.min(1, total);
+    }
+
+    @Override
+    public long countBirths() {
+        return Math.round(births);
+    }
+
+    @Override
+    public long countDeaths() {
+        return Math.round(deaths);
+    }
+
+    @Override
+    public long countInfections() {
+        return Math.round(infections);
+    }
+
+    @Override
+    public int calculateGlobalPopulation() {
+        return (int) Math.round(size - count[World.EMPTY]);
+    }
+
+    @Override
+    public int calculatePopulation(Species species) {
+        return (int) Math.round(count[World.coverOf(species)]);
+    }
+
+    @Override
+    public int calculateInfectedPopulation(Species species) {
+        double sum = 0;
+        for (int a = 0; a < AGES; a++) {
+            sum += infected[species.getIndex() * AGES + a];
+        }
+        return (int) Math.round(sum);
+    }
+
+    @Override
+    public double calculateGlobalTemperature() {
+        double totalTemperature = 0;
+        for (int c = 0; c <= species; c++) {
+            totalTemperature += temperatureSum[c];
+        }
+        return totalTemperature / size;
+    }
+
+    @Override
+    public double calculateLocalTemperatureAvg(Species species) {
+        byte cover = World.coverOf(species);
+        int population = calculatePopulation(species);
+        return population == 0
+                ? Double.NaN
+                : localTemperatureAvg(population,
+                        temperatureSum[cover] / count[cover] * population);
+    }
+}
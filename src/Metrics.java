@@ -0,0 +1,129 @@
+/**
+ * Metrics describes the record a simulation reports for each tick: a flat
+ * array of doubles holding the tick, the population, local temperature
+ * average and infected population of every species of daisies, the global
+ * population and the global temperature.
+ * <br><br>
+ * The layout depends on the configured species, so every configuration
+ * has its own Metrics.
+ */
+public final class Metrics {
+
+    public static final int TICK = 0;
+
+    // offsets of the columns of one species, relative to speciesColumn(index)
+    public static final int POPULATION = 0;
+    public static final int LOCAL_TEMPERATURE = 1;
+    public static final int INFECTED = 2;
+    private static final int COLUMNS_PER_SPECIES = 3;
+
+    private final Species[] species;
+
+    public final int GLOBAL_POPULATION;
+    public final int GLOBAL_TEMPERATURE;
+
+    /** The number of values in a record */
+    public final int WIDTH;
+
+    /**
+     * The constructor of Metrics
+     * @param species the species of daisies, in the order of their columns
+     */
+    public Metrics(Species[] species) {
+        this.species = species;
+        GLOBAL_POPULATION = 1 + COLUMNS_PER_SPECIES * species.length;
+        GLOBAL_TEMPERATURE = GLOBAL_POPULATION + 1;
+        WIDTH = GLOBAL_TEMPERATURE + 1;
+    }
+
+    /**
+     * @param index the index of a species of daisies
+     * @return the index of the first column of that species
+     */
+    public int speciesColumn(int index) {
+        return 1 + COLUMNS_PER_SPECIES * index;
+    }
+
+    /**
+     * @return the names of the columns, as in the header of the csv file
+     */
+    public String[] columnNames() {
+        String[] names = new String[WIDTH];
+        names[TICK] = "tick";
+        for (Species s : species) {
+            String name = s.getName().toLowerCase() + "s";
+            int column = speciesColumn(s.getIndex());
+            names[column + POPULATION] = "number_of_" + name;
+            names[column + LOCAL_TEMPERATURE] = "local_temp_avg_" + name;
+            names[column + INFECTED] = "infected_" + name;
+        }
+        names[GLOBAL_POPULATION] = "global_population";
+        names[GLOBAL_TEMPERATURE] = "global_temperature";
+        return names;
+    }
+
+    /**
+     * @return the labels of the columns printed to standard output
+     */
+    public String[] consoleLabels() {
+        String[] labels = new String[WIDTH];
+        labels[TICK] = "Tick";
+        for (Species s : species) {
+            String name = s.getName().charAt(0)
+                    + s.getName().substring(1).toLowerCase() + "_Daisies";
+            int column = speciesColumn(s.getIndex());
+            labels[column + POPULATION] = name;
+            labels[column + LOCAL_TEMPERATURE] = name + "_Local_Temperature_Average";
+            labels[column + INFECTED] = "Infected_" + name;
+        }
+        labels[GLOBAL_POPULATION] = "Global_Population";
+        labels[GLOBAL_TEMPERATURE] = "Global_Temperature";
+        return labels;
+    }
+
+    /**
+     * Check whether a column holds a whole number, which is printed
+     * without a fraction
+     * @param column the index of the column
+     * @return true for the tick and the populations
+     */
+    public boolean isCount(int column) {
+        if (column == TICK || column == GLOBAL_POPULATION) {
+            return true;
+        }
+        return column < GLOBAL_POPULATION
+                && (column - 1) % COLUMNS_PER_SPECIES != LOCAL_TEMPERATURE;
+    }
+
+    /**
+     * Format one value of a record the way it appears in the outputs
+     * @param record the record
+     * @param offset the index of the first value of the record
+     * @param column the index of the column
+     * @return the value as text
+     */
+    public String format(double[] record, int offset, int column) {
+        double value = record[offset + column];
+        return isCount(column)
+                ? String.valueOf((long) value)
+                : String.valueOf(value);
+    }
+
+    /**
+     * Append one value of a record to a line as {@link #format} formats
+     * it, without making a string
+     * @param line the line
+     * @param record the record
+     * @param offset the index of the first value of the record
+     * @param column the index of the column
+     */
+    public void append(StringBuilder line, double[] record, int offset,
+                       int column) {
+        double value = record[offset + column];
+        if (isCount(column)) {
+            line.append((long) value);
+        } else {
+            line.append(value);
+        }
+    }
+}
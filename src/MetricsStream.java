@@ -0,0 +1,292 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * MetricsStream streams the per-tick records of a simulation to any number
+ * of local subscribers, as newline delimited JSON over a chunked HTTP
+ * response: {@code curl -N http://127.0.0.1:STREAM_PORT/OUTPUT_NAME}. A
+ * GET of {@code /} lists the names of the simulations streaming on the
+ * port, which all simulations of one JVM share.
+ * <br><br>
+ * The records are handed on by the writer thread of the
+ * {@link OutputPipeline}, which never waits for a subscriber: every
+ * subscriber has a queue of STREAM_BUFFER records drained by its own
+ * thread. When the queue of a subscriber is full, the record is dropped
+ * and the subscriber only gets every second tick from then on, every
+ * fourth if it is still full, and so on; once it has caught up to a
+ * quarter of its queue the ticks it gets double again. The tick of every
+ * record shows the subscriber which ticks it has missed.
+ */
+public class MetricsStream implements RecordWriter {
+
+    // the servers of the ports in use, with the streams on each
+    private static final Map<Integer, HttpServer> servers = new HashMap<>();
+    private static final Map<Integer, Map<String, MetricsStream>> streams =
+            new HashMap<>();
+    // the most ticks a subscriber may skip between two records
+    private static final int MAX_STRIDE = 1 << 20;
+
+    private final int port;
+    private final String name;
+    private final int buffer;
+    private final String[] keys;
+    private final Metrics metrics;
+    private final CopyOnWriteArrayList<Subscriber> subscribers =
+            new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Start streaming the records of a simulation, and the server of the
+     * port if no other simulation of this JVM streams on it yet
+     *
+     * @param port the port on the loopback interface
+     * @param name the name of the stream, the output name of the simulation
+     * @param buffer the number of records queued for each subscriber
+     * @param metrics the layout of the records
+     * @throws IOException if the port cannot be bound or the name is taken
+     */
+    public MetricsStream(int port, String name, int buffer, Metrics metrics)
+                                                            throws IOException {
+        this.port = port;
+        this.name = name;
+        this.buffer = buffer;
+        this.metrics = metrics;
+        String[] columns = metrics.columnNames();
+        keys = new String[columns.length];
+        for (int column = 0; column < columns.length; column++) {
+            keys[column] = (column == 0 ? "{\"" : ",\"") + columns[column] + "\":";
+        }
+        register();
+    }
+
+    private void register() throws IOException {
+        synchronized (servers) {
+            Map<String, MetricsStream> named =
+                    streams.computeIfAbsent(port, p -> new HashMap<>());
+            if (named.containsKey(name)) {
+                throw new IOException("A simulation named " + name
+                        + " already streams on port " + port);
+            }
+            if (!servers.containsKey(port)) {
+                HttpServer server = HttpServer.create(new InetSocketAddress(
+                        InetAddress.getLoopbackAddress(), port), 0);
+                server.createContext("/", exchange -> serve(port, exchange));
+                // a thread per subscriber, which may wait on its queue
+                server.setExecutor(Executors.newCachedThreadPool(task -> {
+                    Thread thread = new Thread(task, "daisyworld-stream");
+                    thread.setDaemon(true);
+                    return thread;
+                }));
+                server.start();
+                servers.put(port, server);
+                System.err.println("Streaming the metrics on http://"
+                        + server.getAddress().getHostString() + ":" + port + "/");
+            }
+            named.put(name, this);
+        }
+    }
+
+    /**
+     * Answer a request to the server of a port
+     */
+    private static void serve(int port, HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        MetricsStream stream = null;
+        StringBuilder list = new StringBuilder("[");
+        synchronized (servers) {
+            Map<String, MetricsStream> named = streams.get(port);
+            if (named != null) {
+                stream = named.get(path.substring(1));
+                for (String name : named.keySet()) {
+                    list.append(list.length() > 1 ? ",\"" : "\"")
+                            .append(name).append('"');
+                }
+            }
+        }
+        list.append("]\n");
+
+        if (!exchange.getRequestMethod().equals("GET")) {
+            respond(exchange, 405, "Only GET is supported\n");
+        } else if (path.equals("/")) {
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            respond(exchange, 200, list.toString());
+        } else if (stream == null) {
+            respond(exchange, 404, "No simulation streams as " + path + "\n");
+        } else {
+            stream.subscribe(exchange);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text)
+                                                            throws IOException {
+        byte[] body = text.getBytes(StandardCharsets.UTF_8);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    /**
+     * Send the records to a new subscriber on the thread of its request,
+     * until the simulation ends or the subscriber goes away
+     */
+    private void subscribe(HttpExchange exchange) throws IOException {
+        Subscriber subscriber = new Subscriber(buffer);
+        subscribers.add(subscriber);
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "application/x-ndjson");
+            // a length of 0 makes the response chunked
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                subscriber.send(out);
+            }
+        } finally {
+            subscribers.remove(subscriber);
+            exchange.close();
+        }
+    }
+
+    /**
+     * Offer the record of one tick to every subscriber, without waiting
+     *
+     * @param record the buffer holding the record
+     * @param offset the index of the first value of the record
+     */
+    @Override
+    public void write(double[] record, int offset) {
+        if (subscribers.isEmpty()) {
+            return;
+        }
+        long tick = (long) record[offset + Metrics.TICK];
+        String line = null;
+        for (Subscriber subscriber : subscribers) {
+            if (tick % subscriber.stride != 0) {
+                continue;
+            }
+            if (line == null) {
+                line = format(record, offset);
+            }
+            subscriber.offer(line);
+        }
+    }
+
+    /**
+     * @return the record as a JSON object on one line, with null for the
+     * local temperature of extinct species
+     */
+    private String format(double[] record, int offset) {
+        StringBuilder line = new StringBuilder(32 * keys.length);
+        for (int column = 0; column < keys.length; column++) {
+            line.append(keys[column]);
+            double value = record[offset + column];
+            if (Double.isNaN(value) || Double.isInfinite(value)) {
+                line.append("null");
+            } else {
+                line.append(metrics.format(record, offset, column));
+            }
+        }
+        return line.append("}\n").toString();
+    }
+
+    /**
+     * End the stream: the subscribers get the records queued for them, at
+     * most for a second, and the server stops with the last stream of its
+     * port
+     */
+    @Override
+    public void close() {
+        closed = true;
+        HttpServer server = null;
+        synchronized (servers) {
+            Map<String, MetricsStream> named = streams.get(port);
+            named.remove(name);
+            if (named.isEmpty()) {
+                streams.remove(port);
+                server = servers.remove(port);
+            }
+        }
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(1);
+        while (!subscribers.isEmpty() && System.nanoTime() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (server != null) {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * A client of the stream, with its queue and the ticks it gets
+     */
+    private final class Subscriber {
+
+        private final BlockingQueue<String> queue;
+        private final int capacity;
+        // the subscriber gets the ticks that are multiples of stride, doubled
+        // by the writer thread and halved by the thread of the subscriber;
+        // a lost update only delays the next change
+        private volatile int stride = 1;
+
+        Subscriber(int capacity) {
+            this.capacity = capacity;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        /**
+         * Queue a record, or drop it and halve the ticks sent if the
+         * subscriber is lagging behind; called by the writer thread only
+         */
+        void offer(String line) {
+            if (!queue.offer(line) && stride < MAX_STRIDE) {
+                stride *= 2;
+            }
+        }
+
+        /**
+         * Write the queued records until the stream ends
+         */
+        void send(OutputStream out) throws IOException {
+            StringBuilder batch = new StringBuilder();
+            while (true) {
+                String line;
+                try {
+                    line = queue.poll(100, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                if (line == null) {
+                    if (closed) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.setLength(0);
+                do {
+                    batch.append(line);
+                } while ((line = queue.poll()) != null);
+                out.write(batch.toString().getBytes(StandardCharsets.UTF_8));
+                out.flush();
+
+                if (stride > 1 && queue.size() < capacity / 4) {
+                    stride /= 2;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,6 @@
+/**
+ * The file formats the per-tick records are written in
+ */
+public enum OutputFormat {
+    CSV,BINARY,BOTH
+}
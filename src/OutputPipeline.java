@@ -0,0 +1,204 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * OutputPipeline decouples a simulation from its file and console output.
+ * <br><br>
+ * The simulation publishes one primitive record per tick into a bounded ring
+ * buffer and carries on; a dedicated writer thread drains the buffer in
+ * batches, formats the records and writes them. If the buffer is full the
+ * simulation waits for the writer, so no record is ever lost from the files.
+ * Console lines are either written for every tick, dropped for the ticks of
+ * a batch the writer is lagging behind on, or not written at all.
+ */
+public class OutputPipeline {
+
+    private final RecordWriter[] files;
+    private final ConsoleOutput console;
+    private final Writer out;
+    private final Metrics metrics;
+    private final String[] labels;
+
+    private final int capacity;
+    private final double[] ring;
+    // number of records published by the simulation and written by the writer
+    private final AtomicLong published = new AtomicLong();
+    private final AtomicLong consumed = new AtomicLong();
+
+    private final Thread writer;
+    private volatile Thread producer;
+    private volatile boolean closed;
+    private volatile IOException failure;
+    private long droppedLines;
+    // the bytes written to the files, as of the last batch
+    private volatile long bytesWritten;
+
+    /**
+     * Start the writer thread of a pipeline
+     * @param files the files to write every record to
+     * @param console how records are printed to standard output
+     * @param capacity the number of records the ring buffer can hold
+     * @param metrics the layout of the records
+     */
+    public OutputPipeline(List<RecordWriter> files, ConsoleOutput console,
+                          int capacity, Metrics metrics) {
+        this.files = files.toArray(new RecordWriter[0]);
+        this.console = console;
+        this.capacity = capacity;
+        this.metrics = metrics;
+        this.labels = metrics.consoleLabels();
+        this.ring = new double[capacity * metrics.WIDTH];
+        this.out = new BufferedWriter(new OutputStreamWriter(System.out), 1 << 16);
+        this.writer = new Thread(this::drain, "daisyworld-output");
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Hand the record of one tick over to the writer thread, waiting only if
+     * the ring buffer is full
+     * @param record the record, laid out as described by {@link Metrics}
+     * @throws IOException if the writer thread failed to write
+     */
+    public void publish(double[] record) throws IOException {
+        long sequence = published.get();
+        while (sequence - consumed.get() >= capacity) {
+            checkFailure();
+            producer = Thread.currentThread();
+            LockSupport.parkNanos(this, 1_000_000);
+        }
+        checkFailure();
+        System.arraycopy(record, 0, ring,
+                (int) (sequence % capacity) * metrics.WIDTH, metrics.WIDTH);
+        published.set(sequence + 1);
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * @return the bytes the writer thread has written to the files so far,
+     * which lags behind the published records
+     */
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Wait until the writer thread has written every published record,
+     * without closing the outputs
+     * @throws IOException if the writer thread failed to write
+     */
+    public void awaitWritten() throws IOException {
+        long sequence = published.get();
+        while (consumed.get() < sequence) {
+            checkFailure();
+            producer = Thread.currentThread();
+            LockSupport.parkNanos(this, 1_000_000);
+        }
+        checkFailure();
+    }
+
+    /**
+     * Wait until every published record is written, then flush and close
+     * the outputs
+     * @throws IOException if writing or closing failed
+     */
+    public void close() throws IOException {
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while flushing the output", e);
+        }
+        try {
+            checkFailure();
+            out.flush();
+        } finally {
+            for (RecordWriter file : files) {
+                file.close();
+            }
+        }
+    }
+
+    private void checkFailure() throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The loop of the writer thread
+     */
+    private void drain() {
+        try {
+            while (true) {
+                long from = consumed.get();
+                long to = published.get();
+                if (from == to) {
+                    if (closed && published.get() == from) {
+                        break;
+                    }
+                    LockSupport.park(this);
+                    continue;
+                }
+
+                // the writer is lagging if the batch fills half the buffer
+                boolean printing = console == ConsoleOutput.BLOCK
+                        || (console == ConsoleOutput.DROP && to - from <= capacity / 2);
+                for (long sequence = from; sequence < to; sequence++) {
+                    int offset = (int) (sequence % capacity) * metrics.WIDTH;
+                    for (RecordWriter file : files) {
+                        file.write(ring, offset);
+                    }
+                    if (printing) {
+                        printToConsole(offset);
+                    }
+                }
+                if (console == ConsoleOutput.DROP && !printing) {
+                    droppedLines += to - from;
+                    out.write("... " + (to - from) + " ticks not shown ("
+                            + droppedLines + " in total)");
+                    out.write(System.lineSeparator());
+                }
+                if (console != ConsoleOutput.QUIET) {
+                    out.flush();
+                }
+
+                long bytes = 0;
+                for (RecordWriter file : files) {
+                    bytes += file.bytesWritten();
+                }
+                bytesWritten = bytes;
+                consumed.set(to);
+                Thread waiting = producer;
+                if (waiting != null) {
+                    LockSupport.unpark(waiting);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException | Error e) {
+            // a failed sink must not leave the simulation waiting on a full
+            // ring buffer
+            failure = new IOException("The output writer failed", e);
+        }
+    }
+
+    /**
+     * Print the record at an offset of the ring buffer, one value per line
+     */
+    private void printToConsole(int offset) throws IOException {
+        for (int column = 0; column < metrics.WIDTH; column++) {
+            out.write(labels[column]);
+            out.write(": ");
+            out.write(metrics.format(ring, offset, column));
+            out.write(System.lineSeparator());
+        }
+    }
+}
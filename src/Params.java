@@ -1,67 +1,183 @@
 import java.io.FileReader;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.Arrays;
 import java.util.Properties;
-
+import java.util.Random;
+
+/**
+ * Params is the immutable configuration of one simulation run, read from
+ * "config.properties". Variants of a configuration are made with
+ * {@link #with(String, String)}, so that any number of runs can be
+ * configured independently in one JVM.
+ */
 public class Params {
 
     public static final int MAX_AGE = 25;
 
-    public static final int X_SIZE = 29;
+    public static final int MAX_SPECIES = 126;
+
+    public final int X_SIZE;
+
+    public final int Y_SIZE;
+
+    public final boolean TORUS;
+
+    public final Engine ENGINE;
+
+    public final int PARALLELISM;
+
+    public final boolean SYNCHRONOUS_DEMOGRAPHY;
+
+    public final KernelType KERNEL;
 
-    public static final int Y_SIZE = 29;
+    public final int TILES;
+
+    public final boolean INSTRUMENTATION;
+
+    public final long SEED;
+
+    public final ConsoleOutput CONSOLE_OUTPUT;
+    public final int OUTPUT_BUFFER;
+    public final OutputFormat OUTPUT_FORMAT;
+    public final String OUTPUT_NAME;
+    public final int STREAM_PORT;
+    public final int STREAM_BUFFER;
+    public final int FRAME_INTERVAL;
+    public final double FRAME_TEMPERATURE_STEP;
+    public final int FRAME_TEMPERATURE_INTERVAL;
+    public final boolean WORLD_MAP;
+    public final int CHECKPOINT_TICK;
+    public final String RESTORE_FROM;
 
     public static final String FILE_PATH = "src/config.properties";
 
-    public static double START_WHITE_PERCENTAGE = 0.2;
+    public final Species[] SPECIES;
+
+    public final double SOLAR_LUMINOSITY;
 
-    public static double START_BLACK_PERCENTAGE = 0.2;
+    public final double ALBEDO_OF_SURFACE;
 
-    public static double ALBEDO_OF_WHITES = 0.75;
+    public final int ITERATION_LIMIT;
 
-    public static double ALBEDO_OF_BLACKS = 0.75;
+    public final String MODE;
 
-    public static double SOLAR_LUMINOSITY = 0.8;
+    public final int RISE_START;
+    public final int RISE_TICKS;
+    public final int DROP_START;
+    public final int DROP_TICKS;
+    public final double SOLAR_LUMINOSITY_PEAK;
+    public final double SOLAR_LUMINOSITY_END;
 
-    public static double ALBEDO_OF_SURFACE;
+    public final boolean EXTENSION;
+    public final int INFECTION_CYCLE;
+    public final double RECOVERY_RATE;
+    public final double DEATH_RATE;
+    public final double INFECTION_RATE;
 
-    public static int ITERATION_LIMIT;
+    public final SteadyStateAction STEADY_STATE;
+    public final int STEADY_STATE_WINDOW;
+    public final double STEADY_STATE_TOLERANCE;
+    public final double STEADY_STATE_NOISE;
 
-    public static String MODE;
+    public final int SWEEP_THREADS;
 
-    public static int RISE_START;
-    public static int RISE_TICKS;
-    public static int DROP_START;
-    public static int DROP_TICKS;
-    public static double SOLAR_LUMINOSITY_PEAK;
-    public static double SOLAR_LUMINOSITY_END;
+    public final int ENSEMBLE_REPLICATES;
+    public final double[] ENSEMBLE_QUANTILES;
+    public final boolean ENSEMBLE_KEEP_REPLICATES;
 
-    public static boolean EXTENSION;
-    public static int INFECTION_CYCLE;
-    public static double RECOVERY_RATE;
-    public static double DEATH_RATE;
-    public static double INFECTION_RATE;
+    // the properties the values were parsed from
+    private final Properties daisyWorldProperties;
+    // the layout of the records of a run, given by the species
+    private final Metrics metrics;
 
     /**
      * Read initial Daisyworld configuration from "config.properties" file
+     * @return the configuration
      * @throws Exception if any parsed value is out of bound
      */
-    public static void configParams() throws Exception {
+    public static Params configParams() throws Exception {
+        return load(FILE_PATH);
+    }
 
+    /**
+     * Read a Daisyworld configuration from a properties file
+     * @param path the path of the file
+     * @return the configuration
+     * @throws Exception if any parsed value is out of bound
+     */
+    public static Params load(String path) throws Exception {
         Properties daisyWorldProperties = new Properties();
-        try (FileReader inStream = new FileReader(FILE_PATH)) {
+        try (FileReader inStream = new FileReader(path)) {
             daisyWorldProperties.load(inStream);
         }
+        return new Params(daisyWorldProperties);
+    }
 
-        // Model Parameters
-        START_WHITE_PERCENTAGE = Double.parseDouble
-                (daisyWorldProperties.getProperty("START_WHITE_PERCENTAGE"));
-        START_BLACK_PERCENTAGE = Double.parseDouble
-                (daisyWorldProperties.getProperty("START_BLACK_PERCENTAGE"));
+    /**
+     * Parse a Daisyworld configuration
+     * @param properties the value of every parameter
+     * @throws Exception if any parsed value is out of bound
+     */
+    public Params(Properties properties) throws Exception {
+        daisyWorldProperties = new Properties();
+        daisyWorldProperties.putAll(properties);
+
+        // Random seed, a new one if left empty. It is kept in the properties
+        // so that every variant of this configuration uses the same one.
+        String seed = daisyWorldProperties.getProperty("SEED", "").trim();
+        SEED = seed.isEmpty() ? new Random().nextLong() : Long.parseLong(seed);
+        daisyWorldProperties.setProperty("SEED", String.valueOf(SEED));
+
+        // World
+        X_SIZE = Integer.parseInt
+                (daisyWorldProperties.getProperty("X_SIZE"));
+        Y_SIZE = Integer.parseInt
+                (daisyWorldProperties.getProperty("Y_SIZE"));
+        TORUS = Boolean.parseBoolean
+                (daisyWorldProperties.getProperty("TORUS"));
+        ENGINE = parseEngine
+                (daisyWorldProperties.getProperty("ENGINE"));
+
+        // Performance
+        PARALLELISM = Integer.parseInt
+                (daisyWorldProperties.getProperty("PARALLELISM"));
+        SYNCHRONOUS_DEMOGRAPHY = Boolean.parseBoolean
+                (daisyWorldProperties.getProperty("SYNCHRONOUS_DEMOGRAPHY"));
+        KERNEL = parseKernel
+                (daisyWorldProperties.getProperty("KERNEL"));
+        TILES = Integer.parseInt
+                (daisyWorldProperties.getProperty("TILES"));
+        INSTRUMENTATION = Boolean.parseBoolean
+                (daisyWorldProperties.getProperty("INSTRUMENTATION"));
+
+        // Output
+        CONSOLE_OUTPUT = parseConsoleOutput
+                (daisyWorldProperties.getProperty("CONSOLE_OUTPUT"));
+        OUTPUT_BUFFER = Integer.parseInt
+                (daisyWorldProperties.getProperty("OUTPUT_BUFFER"));
+        OUTPUT_FORMAT = parseOutputFormat
+                (daisyWorldProperties.getProperty("OUTPUT_FORMAT"));
+        OUTPUT_NAME = daisyWorldProperties.getProperty("OUTPUT_NAME", "").trim();
+        STREAM_PORT = Integer.parseInt
+                (daisyWorldProperties.getProperty("STREAM_PORT"));
+        STREAM_BUFFER = Integer.parseInt
+                (daisyWorldProperties.getProperty("STREAM_BUFFER"));
+        FRAME_INTERVAL = Integer.parseInt
+                (daisyWorldProperties.getProperty("FRAME_INTERVAL"));
+        FRAME_TEMPERATURE_STEP = Double.parseDouble
+                (daisyWorldProperties.getProperty("FRAME_TEMPERATURE_STEP"));
+        FRAME_TEMPERATURE_INTERVAL = Integer.parseInt
+                (daisyWorldProperties.getProperty("FRAME_TEMPERATURE_INTERVAL"));
+        WORLD_MAP = Boolean.parseBoolean
+                (daisyWorldProperties.getProperty("WORLD_MAP"));
+        CHECKPOINT_TICK = Integer.parseInt
+                (daisyWorldProperties.getProperty("CHECKPOINT_TICK"));
+        RESTORE_FROM = daisyWorldProperties.getProperty("RESTORE_FROM", "").trim();
 
-        ALBEDO_OF_WHITES = Double.parseDouble
-                (daisyWorldProperties.getProperty("ALBEDO_OF_WHITES"));
-        ALBEDO_OF_BLACKS = Double.parseDouble
-                (daisyWorldProperties.getProperty("ALBEDO_OF_BLACKS"));
+        // Model Parameters
+        SPECIES = parseSpecies(daisyWorldProperties);
+        metrics = new Metrics(SPECIES);
 
         SOLAR_LUMINOSITY = Double.parseDouble
                 (daisyWorldProperties.getProperty("SOLAR_LUMINOSITY"));
@@ -99,19 +215,188 @@ public class Params {
         INFECTION_RATE = Double.parseDouble
                 (daisyWorldProperties.getProperty("INFECTION_RATE"));
 
+        // Steady state
+        STEADY_STATE = parseSteadyState
+                (daisyWorldProperties.getProperty("STEADY_STATE"));
+        STEADY_STATE_WINDOW = Integer.parseInt
+                (daisyWorldProperties.getProperty("STEADY_STATE_WINDOW"));
+        STEADY_STATE_TOLERANCE = Double.parseDouble
+                (daisyWorldProperties.getProperty("STEADY_STATE_TOLERANCE"));
+        STEADY_STATE_NOISE = Double.parseDouble
+                (daisyWorldProperties.getProperty("STEADY_STATE_NOISE"));
+
+        // Sweeps
+        SWEEP_THREADS = Integer.parseInt
+                (daisyWorldProperties.getProperty("SWEEP_THREADS"));
+
+        // Ensembles
+        ENSEMBLE_REPLICATES = Integer.parseInt
+                (daisyWorldProperties.getProperty("ENSEMBLE_REPLICATES"));
+        ENSEMBLE_QUANTILES = parseQuantiles
+                (daisyWorldProperties.getProperty("ENSEMBLE_QUANTILES"));
+        ENSEMBLE_KEEP_REPLICATES = Boolean.parseBoolean
+                (daisyWorldProperties.getProperty("ENSEMBLE_KEEP_REPLICATES"));
+
         checkParamsValidity();
     }
 
+    /**
+     * Make a variant of this configuration with one parameter changed
+     * @param name the name of the parameter
+     * @param value the new value of the parameter
+     * @return the new configuration
+     * @throws Exception if the new value is out of bound
+     */
+    public Params with(String name, String value) throws Exception {
+        Properties properties = new Properties();
+        properties.putAll(daisyWorldProperties);
+        properties.setProperty(name, value);
+        return new Params(properties);
+    }
+
+    /**
+     * @return a copy of the properties this configuration was parsed from
+     */
+    public Properties properties() {
+        Properties properties = new Properties();
+        properties.putAll(daisyWorldProperties);
+        return properties;
+    }
+
+    /**
+     * @return the layout of the record of every tick of a run
+     */
+    public Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Get the name of the output files, without extension: OUTPUT_NAME if
+     * set, otherwise named after the mode and extension
+     *
+     * @return OUTPUT_NAME or "daisyworld[-ext]-MODE"
+     */
+    public String outputName() {
+        if (!OUTPUT_NAME.isEmpty()) {
+            return OUTPUT_NAME;
+        }
+        if (EXTENSION) {
+            return "daisyworld-ext-"+MODE;
+        }
+        else {
+            return "daisyworld-"+MODE;
+        }
+    }
+
     /**
      * Check the validity of configuration parameters
      * @throws Exception if any value is out of bound
      */
-    public static void checkParamsValidity() throws Exception {
-        checkDaisyPercentage(START_WHITE_PERCENTAGE, Color.WHITE);
-        checkDaisyPercentage(START_BLACK_PERCENTAGE, Color.BLACK);
+    public void checkParamsValidity() throws Exception {
+        if(X_SIZE < 1 || Y_SIZE < 1){
+            throw new Exception("The size of the world should be " +
+                    "at least 1 in both dimensions" );
+        }
+        if((long) X_SIZE * Y_SIZE > Integer.MAX_VALUE){
+            throw new Exception("The world should have " +
+                    "at most " + Integer.MAX_VALUE + " patches" );
+        }
+        if(TORUS && (X_SIZE < 3 || Y_SIZE < 3)){
+            throw new Exception("A wrapping world should be " +
+                    "at least 3 in both dimensions" );
+        }
+        if(PARALLELISM < 1){
+            throw new Exception("Parallelism should be at least 1" );
+        }
+        if(OUTPUT_BUFFER < 2){
+            throw new Exception("The output buffer should hold " +
+                    "at least 2 ticks" );
+        }
+        if(STREAM_PORT < 0 || STREAM_PORT > 65535){
+            throw new Exception("Stream port should be " +
+                    "0 (off) or a port number" );
+        }
+        if(STREAM_BUFFER < 1){
+            throw new Exception("The stream buffer should hold " +
+                    "at least 1 tick" );
+        }
+        if(FRAME_INTERVAL < 0){
+            throw new Exception("Frame interval should be " +
+                    "0 (off) or a positive number of ticks" );
+        }
+        if(TILES < 0 || TILES > X_SIZE){
+            throw new Exception("Tiles should be 0 (one process) " +
+                    "or a number of worker processes up to X_SIZE" );
+        }
+        if(TILES > 0 && (!SYNCHRONOUS_DEMOGRAPHY || FRAME_INTERVAL != 0
+                || CHECKPOINT_TICK != 0
+                || STEADY_STATE == SteadyStateAction.FAST_FORWARD)){
+            throw new Exception("A tiled world needs the synchronous " +
+                    "demography, and records no frames or checkpoints " +
+                    "and cannot fast forward" );
+        }
+        if(STEADY_STATE == SteadyStateAction.FAST_FORWARD
+                && (FRAME_INTERVAL != 0 || CHECKPOINT_TICK != 0
+                || WORLD_MAP || INSTRUMENTATION)){
+            throw new Exception("A run that fast forwards skips the ticks " +
+                    "after its steady state, so it records no frames, " +
+                    "checkpoints, world map or instrumentation" );
+        }
+        if(ENGINE == Engine.MEAN_FIELD && (TILES != 0 || FRAME_INTERVAL != 0
+                || CHECKPOINT_TICK != 0 || !RESTORE_FROM.isEmpty()
+                || WORLD_MAP || STEADY_STATE == SteadyStateAction.FAST_FORWARD)){
+            throw new Exception("A mean-field simulation has no grid to " +
+                    "tile, record, map, checkpoint or restore, and cannot " +
+                    "fast forward" );
+        }
+        if(ENGINE == Engine.MEAN_FIELD
+                && MODE.equals(Mode.RAMP_UP_RAMP_DOWN.toString())){
+            throw new Exception("A mean-field simulation only approximates " +
+                    "the grid at a constant solar luminosity; see " +
+                    "MeanFieldComparison" );
+        }
+        if(WORLD_MAP && TILES != 0){
+            throw new Exception("A tiled world cannot be mapped, its " +
+                    "stripes live in the worker processes" );
+        }
+        if(FRAME_TEMPERATURE_STEP <= 0){
+            throw new Exception("Frame temperature step should be positive" );
+        }
+        if(FRAME_TEMPERATURE_INTERVAL < 1){
+            throw new Exception("Frame temperature interval should be " +
+                    "a positive number of frames" );
+        }
+        if(CHECKPOINT_TICK < 0){
+            throw new Exception("Checkpoint tick should be " +
+                    "0 (off) or a tick number" );
+        }
+        if(STEADY_STATE_WINDOW < 2){
+            throw new Exception("The steady state window should be " +
+                    "at least 2 ticks" );
+        }
+        if(STEADY_STATE_TOLERANCE <= 0 || STEADY_STATE_NOISE <= 0){
+            throw new Exception("The steady state tolerance and noise " +
+                    "should be positive" );
+        }
+        if(SWEEP_THREADS < 0){
+            throw new Exception("Sweep threads should be " +
+                    "0 (all processors) or a positive number" );
+        }
+        if(ENSEMBLE_REPLICATES < 1){
+            throw new Exception("An ensemble should have " +
+                    "at least 1 replicate" );
+        }
 
-        checkAlbedoOfDaisy(ALBEDO_OF_WHITES, Color.WHITE);
-        checkAlbedoOfDaisy(ALBEDO_OF_BLACKS, Color.BLACK);
+        double startPercentage = 0;
+        for (Species species : SPECIES) {
+            checkDaisyPercentage(species.getStartPercentage(), species);
+            checkAlbedoOfDaisy(species.getAlbedo(), species);
+            startPercentage += species.getStartPercentage();
+        }
+        if(startPercentage > 1){
+            throw new Exception("The initial percentages of all daisies " +
+                    "should add up to at most 1" );
+        }
 
 
         if(SOLAR_LUMINOSITY < 0.001 || SOLAR_LUMINOSITY > 3){
@@ -140,18 +425,198 @@ public class Params {
 
     }
 
+    /**
+     * Parse the console output mode
+     * @param value the configured value
+     * @return the console output mode
+     * @throws Exception if the value is not a console output mode
+     */
+    public static ConsoleOutput parseConsoleOutput(String value)
+                                                            throws Exception {
+        try {
+            return ConsoleOutput.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Console output should be " +
+                    "either BLOCK, DROP or QUIET" );
+        }
+    }
+
+    /**
+     * Parse the output file format
+     * @param value the configured value
+     * @return the output file format
+     * @throws Exception if the value is not an output file format
+     */
+    public static OutputFormat parseOutputFormat(String value)
+                                                            throws Exception {
+        try {
+            return OutputFormat.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Output format should be " +
+                    "either CSV, BINARY or BOTH" );
+        }
+    }
+
+    /**
+     * Parse the engine of the simulations
+     * @param value the configured value
+     * @return the engine
+     * @throws Exception if the value is not an engine
+     */
+    public static Engine parseEngine(String value) throws Exception {
+        try {
+            return Engine.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Engine should be " +
+                    "either GRID or MEAN_FIELD" );
+        }
+    }
+
+    /**
+     * Parse the kernel of the temperature phases
+     * @param value the configured value
+     * @return the kernel type
+     * @throws Exception if the value is not a kernel type
+     */
+    public static KernelType parseKernel(String value) throws Exception {
+        try {
+            return KernelType.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Kernel should be " +
+                    "either AUTO, SCALAR or VECTOR" );
+        }
+    }
+
+    /**
+     * Parse what to do once the metrics are steady
+     * @param value the configured value
+     * @return the steady state action
+     * @throws Exception if the value is not a steady state action
+     */
+    public static SteadyStateAction parseSteadyState(String value)
+                                                            throws Exception {
+        try {
+            return SteadyStateAction.valueOf(value.trim());
+        } catch (IllegalArgumentException e) {
+            throw new Exception("Steady state should be " +
+                    "either OFF, STOP or FAST_FORWARD" );
+        }
+    }
+
+    /**
+     * Parse a comma separated list of quantile probabilities
+     * @param value the configured value, possibly empty
+     * @return the probabilities
+     * @throws Exception if a probability is not strictly between 0 and 1
+     */
+    public static double[] parseQuantiles(String value) throws Exception {
+        if (value.trim().isEmpty()) {
+            return new double[0];
+        }
+        String[] items = value.split(",");
+        double[] quantiles = new double[items.length];
+        for (int i = 0; i < items.length; i++) {
+            quantiles[i] = Double.parseDouble(items[i].trim());
+            if (!(quantiles[i] > 0 && quantiles[i] < 1)) {
+                throw new Exception("Ensemble quantiles should be " +
+                        "between 0 and 1 exclusive" );
+            }
+        }
+        return quantiles;
+    }
+
+    /**
+     * Parse the species of daisies: the comma separated names of SPECIES,
+     * WHITE,BLACK if it is not set, each with its ALBEDO_OF_NAMES and
+     * START_NAME_PERCENTAGE
+     * @param properties the value of every parameter
+     * @return the species, in the order they are listed
+     * @throws Exception if a name is invalid or repeated, or a value is missing
+     */
+    public static Species[] parseSpecies(Properties properties)
+                                                            throws Exception {
+        String[] names = properties.getProperty("SPECIES", "WHITE,BLACK").split(",");
+        // the cover code of a species, its index plus one, must leave the
+        // highest bit of a byte free for the infection flag
+        if(names.length > MAX_SPECIES){
+            throw new Exception("There should be at most " + MAX_SPECIES
+                    + " species" );
+        }
+        Species[] species = new Species[names.length];
+        for (int i = 0; i < names.length; i++) {
+            String name = names[i].trim();
+            if(!name.matches("[A-Z][A-Z0-9_]*")){
+                throw new Exception("Species names should be upper case " +
+                        "letters, digits and underscores, got \"" + name + "\"" );
+            }
+            for (int j = 0; j < i; j++) {
+                if(species[j].getName().equals(name)){
+                    throw new Exception("Species " + name + " is listed twice" );
+                }
+            }
+            String albedo = properties.getProperty("ALBEDO_OF_" + name + "S");
+            String percentage = properties.getProperty("START_" + name + "_PERCENTAGE");
+            if(albedo == null || percentage == null){
+                throw new Exception("Species " + name + " needs ALBEDO_OF_"
+                        + name + "S and START_" + name + "_PERCENTAGE" );
+            }
+            species[i] = new Species(i, name, Double.parseDouble(albedo.trim()),
+                    Double.parseDouble(percentage.trim()));
+        }
+        return species;
+    }
+
+    /**
+     * Check whether a name is a parameter of this configuration, either a
+     * field or a property such as the albedo of a species
+     * @param name the name of the parameter
+     * @return true if a value can be given to it
+     */
+    public boolean hasParameter(String name) {
+        try {
+            return !Modifier.isStatic(Params.class.getField(name).getModifiers());
+        } catch (NoSuchFieldException e) {
+            return daisyWorldProperties.containsKey(name);
+        }
+    }
+
+    /**
+     * Describe the current value of every parameter
+     * @return one "NAME=value" line per parameter
+     */
+    public String describe() {
+        StringBuilder description = new StringBuilder();
+        for (Field field : Params.class.getFields()) {
+            if (field.getName().equals("FILE_PATH")) {
+                continue;
+            }
+            try {
+                Object value = field.get(this);
+                description.append(field.getName()).append('=')
+                        .append(value instanceof double[]
+                                ? Arrays.toString((double[]) value)
+                                : value instanceof Object[]
+                                ? Arrays.toString((Object[]) value) : value)
+                        .append('\n');
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+        return description.toString();
+    }
+
     /**
      * Check that the value of the start percentage of daisies
-     * with a specific color is within the range of [0, 0.5]
+     * of a specific species is within the range of [0, 0.5]
      * @param percentage the initial percentage of daisies
-     * @param color the color of daisies
+     * @param species the species of daisies
      * @throws Exception if the value is out of bound
      */
-    public static void checkDaisyPercentage(double percentage, Color color)
+    public static void checkDaisyPercentage(double percentage, Species species)
                                                             throws Exception {
         if(percentage < 0 || percentage > 0.5){
             throw new Exception("The initial percentage of "
-                    + color.toString().toLowerCase()
+                    + species.getName().toLowerCase()
                     + " daisies should be between 0 and 0.5 inclusive" );
         }
     }
@@ -160,14 +625,14 @@ public class Params {
      * Check that the albedo value of one typed daisies is
      * within the range of [0, 0.99]
      * @param albedo the albedo of one typed daisies
-     * @param color the color of daisies
+     * @param species the species of daisies
      * @throws Exception if the value is out of bound
      */
-    public static void checkAlbedoOfDaisy(double albedo, Color color)
+    public static void checkAlbedoOfDaisy(double albedo, Species species)
                                                             throws Exception {
         if(albedo < 0 || albedo > 0.99){
             throw new Exception("The albedo of "
-                    + color.toString().toLowerCase()
+                    + species.getName().toLowerCase()
                     + " daisies should be between 0 and 0.99 inclusive" );
         }
     }
@@ -1,20 +1,21 @@
+import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Patch is a view over one cell of the {@link World}
+ */
 public class Patch {
-    private final int coordinateX;
-    private final int coordinateY;
-    private double temperature = 0;
-    private List<Patch> neighbors;
-    private Daisy daisy = null;
+    private final World world;
+    private final int cell;
 
     /**
      * The constructor of Patch
-     * @param coordinateX x
-     * @param coordinateY y
+     * @param world the world this patch belongs to
+     * @param cell the cell id of this patch
      */
-    public Patch(int coordinateX, int coordinateY) {
-        this.coordinateX = coordinateX;
-        this.coordinateY = coordinateY;
+    public Patch(World world, int cell) {
+        this.world = world;
+        this.cell = cell;
     }
 
     /**
@@ -23,80 +24,69 @@ public class Patch {
      * If the patch has less than 8 neighbors, it will keep the leftover shares
      */
     public void diffuse(){
-        double share = this.temperature * 0.5 / 8;
-        neighbors.forEach(p -> p.temperature += share);
-        if(neighbors.size()==8){
-            this.temperature *= 0.5;
-        }else{
-            this.temperature = 0.5 * this.temperature
-                    + ( 8 - neighbors.size()) * share;
-        }
+        world.diffuse(cell);
     }
 
     /**
      * Calculate the temperature of a patch
      */
     void calculateTemperature(){
-
-        double absorbedLuminosity = calcAbsorbedLuminosity();
-
-        double localHeating = calcLocalHeating(absorbedLuminosity);
-
-        this.temperature = (this.temperature + localHeating) / 2;
+        world.calculateTemperature(cell);
     }
 
-    /**
-     * Calculate the local heating
-     * @param absorbedLuminosity the absorbed luminosity calculated previously
-     * @return the local heating data for the calculation of temperature
-     */
-    private double calcLocalHeating(double absorbedLuminosity) {
-        if(absorbedLuminosity > 0){
-            // https://stackoverflow.com/questions/2568142/how-to-use-ln-in-java
-            return  72 * Math.log(absorbedLuminosity) + 80;
-        }else{
-            return 80;
-        }
+    public World getWorld() {
+        return world;
     }
 
-    /**
-     * Calculate the absorbed luminosity
-     * @return absorbed luminosity
-     */
-    private double calcAbsorbedLuminosity() {
-        if(this.daisy == null){
-            return (1 - Params.ALBEDO_OF_SURFACE) * Params.SOLAR_LUMINOSITY;
-        }else{
-            return (1 - this.daisy.getAlbedo()) * Params.SOLAR_LUMINOSITY;
-        }
+    public int getCell() {
+        return cell;
     }
 
-
     public int getCoordinateX() {
-        return coordinateX;
+        return world.xOf(cell);
     }
 
     public int getCoordinateY() {
-        return coordinateY;
+        return world.yOf(cell);
     }
 
     public double getTemperature() {
-        return temperature;
+        return world.temperature.get(cell);
     }
 
+    /**
+     * Get the daisy residing in this patch
+     * @return a view of the daisy, or null if the patch has no daisy
+     */
     public Daisy getDaisy() {
-        return daisy;
+        return world.hasDaisy(cell) ? new Daisy(this) : null;
     }
 
+    /**
+     * Put a daisy into this patch, or detach the current one
+     * @param daisy the daisy to be copied into this patch, or null
+     */
     public void setDaisy(Daisy daisy) {
-        this.daisy = daisy;
+        if (daisy == null) {
+            world.removeDaisy(cell);
+        } else if (daisy.getPatch().cell != cell
+                || daisy.getPatch().world != world) {
+            world.placeDaisy(cell, daisy.getSpecies(), daisy.getAge());
+            world.setInfected(cell, daisy.isInfected());
+        }
     }
 
+    /**
+     * Get the patches within 1 distance of this patch
+     * @return views of the neighboring patches
+     */
     public List<Patch> getNeighbors() {
+        int[] cells = new int[World.MAX_NEIGHBORS];
+        int count = world.neighborsOf(cell, cells);
+        List<Patch> neighbors = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            neighbors.add(new Patch(world, cells[i]));
+        }
         return neighbors;
     }
-
-    public void setNeighbors(List<Patch> neighbors) {
-        this.neighbors = neighbors;
-    }
 }
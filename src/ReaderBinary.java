@@ -0,0 +1,148 @@
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+
+/**
+ * ReaderBinary loads the files written by {@link WriterBinary} and exports
+ * them as csv.
+ * <br><br>
+ * Usage: {@code java ReaderBinary <file.bin> [file.csv]}, printing the csv
+ * to standard output if no csv file is given.
+ */
+public class ReaderBinary {
+
+    private final String[] columnNames;
+    private final byte[] columnTypes;
+    private final String parameters;
+    private final double[][] columns;
+    private final int ticks;
+
+    /**
+     * Load a binary output file into memory
+     *
+     * @param path the file to be read
+     * @throws IOException if the file cannot be read or is not in the format
+     */
+    public ReaderBinary(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path)) {
+            MappedByteBuffer buffer = channel.map(
+                    FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] magic = new byte[WriterBinary.MAGIC.length];
+            buffer.get(magic);
+            if (!Arrays.equals(magic, WriterBinary.MAGIC)) {
+                throw new IOException(path + " is not a binary daisyworld output");
+            }
+            int version = buffer.getInt();
+            if (version != WriterBinary.VERSION) {
+                throw new IOException("Unsupported format version " + version);
+            }
+
+            columnNames = new String[buffer.getInt()];
+            columnTypes = new byte[columnNames.length];
+            for (int column = 0; column < columnNames.length; column++) {
+                columnTypes[column] = buffer.get();
+                byte[] name = new byte[buffer.getShort()];
+                buffer.get(name);
+                columnNames[column] = new String(name, StandardCharsets.UTF_8);
+            }
+            byte[] text = new byte[buffer.getInt()];
+            buffer.get(text);
+            parameters = new String(text, StandardCharsets.UTF_8);
+
+            // every tick takes at least four bytes per column
+            int capacity = (int) (buffer.remaining()
+                    / ((long) columnNames.length * Integer.BYTES));
+            double[][] values = new double[columnNames.length][capacity];
+            int count = 0;
+            while (buffer.hasRemaining()) {
+                int blockTicks = buffer.getInt();
+                for (int column = 0; column < values.length; column++) {
+                    if (columnTypes[column] == WriterBinary.INT32) {
+                        for (int tick = count; tick < count + blockTicks; tick++) {
+                            values[column][tick] = buffer.getInt();
+                        }
+                    } else if (columnTypes[column] == WriterBinary.FLOAT64) {
+                        buffer.asDoubleBuffer().get(values[column], count, blockTicks);
+                        buffer.position(buffer.position() + blockTicks * Double.BYTES);
+                    } else {
+                        throw new IOException("Unknown type of column "
+                                + columnNames[column]);
+                    }
+                }
+                count += blockTicks;
+            }
+            for (int column = 0; column < values.length; column++) {
+                values[column] = Arrays.copyOf(values[column], count);
+            }
+            columns = values;
+            ticks = count;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1 || args.length > 2) {
+            System.err.println("Usage: java ReaderBinary <file.bin> [file.csv]");
+            System.exit(1);
+        }
+        ReaderBinary reader = new ReaderBinary(Paths.get(args[0]));
+        try (Writer out = args.length == 2
+                ? new BufferedWriter(new FileWriter(args[1]))
+                : new BufferedWriter(new OutputStreamWriter(System.out))) {
+            reader.exportToCSV(out);
+        }
+    }
+
+    /**
+     * Write the loaded ticks as csv, formatted as {@link WriterCSV} does
+     *
+     * @param out the destination of the csv
+     * @throws IOException if an I/O error occurs
+     */
+    public void exportToCSV(Writer out) throws IOException {
+        out.write(String.join(",", columnNames));
+        out.write(System.lineSeparator());
+        for (int tick = 0; tick < ticks; tick++) {
+            for (int column = 0; column < columnNames.length; column++) {
+                double value = columns[column][tick];
+                if (column > 0) {
+                    out.write(',');
+                }
+                out.write(columnTypes[column] == WriterBinary.INT32
+                        ? String.valueOf((long) value)
+                        : String.valueOf(value));
+            }
+            out.write(System.lineSeparator());
+        }
+    }
+
+    public String[] getColumnNames() {
+        return columnNames;
+    }
+
+    public String getParameters() {
+        return parameters;
+    }
+
+    /**
+     * @param column the index of the column
+     * @return the values of that column, one per tick
+     */
+    public double[] getColumn(int column) {
+        return columns[column];
+    }
+
+    public int getTicks() {
+        return ticks;
+    }
+}
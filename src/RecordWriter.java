@@ -0,0 +1,31 @@
+import java.io.IOException;
+
+/**
+ * A destination for the per-tick records of a simulation
+ */
+public interface RecordWriter {
+
+    /**
+     * Write the values of one tick
+     *
+     * @param record the buffer holding the record
+     * @param offset the index of the first value of the record
+     * @throws IOException if an I/O error occurs
+     */
+    void write(double[] record, int offset) throws IOException;
+
+    /**
+     * @return the number of bytes written so far, 0 if the destination is
+     * not a file
+     */
+    default long bytesWritten() {
+        return 0;
+    }
+
+    /**
+     * Flush and close the destination
+     *
+     * @throws IOException if an I/O error occurs
+     */
+    void close() throws IOException;
+}
@@ -0,0 +1,99 @@
+/**
+ * Rng is a seeded SplitMix64 random number generator, the algorithm behind
+ * java.util.SplittableRandom. A generator can split off independent child
+ * streams, so every part of a simulation draws from its own stream without
+ * contention while the whole run stays reproducible from one seed.
+ * <br><br>
+ * Unlike SplittableRandom its state is exposed, so that it can be saved
+ * with the rest of a simulation.
+ */
+public class Rng {
+
+    private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+    private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+    private long seed;
+    private final long gamma;
+
+    /**
+     * Create a generator from a seed
+     * @param seed the seed
+     */
+    public Rng(long seed) {
+        this(seed, GOLDEN_GAMMA);
+    }
+
+    /**
+     * Restore a generator from its state
+     * @param seed the current seed
+     * @param gamma the increment, which must be odd
+     */
+    public Rng(long seed, long gamma) {
+        this.seed = seed;
+        this.gamma = gamma;
+    }
+
+    /**
+     * Split off a new generator whose values are independent of this one
+     * @return the new generator
+     */
+    public Rng split() {
+        return new Rng(nextLong(), mixGamma(nextSeed()));
+    }
+
+    /**
+     * Copy this generator, the copy drawing the same values from now on
+     * @return the copy
+     */
+    public Rng copy() {
+        return new Rng(seed, gamma);
+    }
+
+    public long nextLong() {
+        return CellRandom.mix(nextSeed());
+    }
+
+    /**
+     * @return a uniform double in [0, 1)
+     */
+    public double nextDouble() {
+        return (nextLong() >>> 11) * DOUBLE_UNIT;
+    }
+
+    /**
+     * @param bound the upper bound, which must be positive
+     * @return a uniform int in [0, bound)
+     */
+    public int nextInt(int bound) {
+        // rejection sampling as in SplittableRandom, so the result is unbiased
+        int r = (int) (nextLong() >>> 33);
+        int m = bound - 1;
+        if ((bound & m) == 0) {
+            return (int) ((bound * (long) r) >>> 31);
+        }
+        for (int u = r; u - (r = u % bound) + m < 0;
+             u = (int) (nextLong() >>> 33)) {
+        }
+        return r;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public long getGamma() {
+        return gamma;
+    }
+
+    private long nextSeed() {
+        return seed += gamma;
+    }
+
+    private static long mixGamma(long z) {
+        z = (z ^ (z >>> 33)) * 0xFF51AFD7ED558CCDL;
+        z = (z ^ (z >>> 33)) * 0xC4CEB9FE1A85EC53L;
+        z = (z ^ (z >>> 33)) | 1L;
+        int n = Long.bitCount(z ^ (z >>> 1));
+        return (n < 24) ? z ^ 0xAAAAAAAAAAAAAAAAL : z;
+    }
+}
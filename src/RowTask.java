@@ -0,0 +1,80 @@
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * RowTask applies a phase of the tick to a stripe of rows of the world,
+ * split in halves until it is small enough to run on one worker of a
+ * ForkJoinPool.
+ * <br><br>
+ * Only phases whose result for a cell does not depend on other cells of the
+ * same phase may be run this way, which makes the parallel result identical
+ * to the sequential one.
+ * <br><br>
+ * The tree of halves is built once and run again for every phase, see
+ * {@link #prepare(Phase)}, so that a tick allocates no tasks.
+ */
+public class RowTask extends RecursiveAction {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * A phase of the tick that can be applied to a range of rows
+     */
+    public interface Phase {
+        /**
+         * @param fromRow the first row, inclusive
+         * @param toRow the last row, exclusive
+         */
+        void apply(int fromRow, int toRow);
+    }
+
+    private Phase phase;
+    private final int fromRow;
+    private final int toRow;
+    // the halves of the stripe, null if it is not split
+    private final RowTask lower;
+    private final RowTask upper;
+
+    /**
+     * The constructor of RowTask
+     * @param fromRow the first row, inclusive
+     * @param toRow the last row, exclusive
+     * @param grain the number of rows below which the stripe is not split
+     */
+    public RowTask(int fromRow, int toRow, int grain) {
+        this.fromRow = fromRow;
+        this.toRow = toRow;
+        if (toRow - fromRow <= grain) {
+            lower = null;
+            upper = null;
+        } else {
+            int middle = (fromRow + toRow) >>> 1;
+            lower = new RowTask(fromRow, middle, grain);
+            upper = new RowTask(middle, toRow, grain);
+        }
+    }
+
+    /**
+     * Make the tree ready to apply a phase, after it has completed the
+     * previous one
+     * @param phase the phase to apply
+     * @return this task, to be invoked on the pool
+     */
+    public RowTask prepare(Phase phase) {
+        this.phase = phase;
+        reinitialize();
+        if (lower != null) {
+            lower.prepare(phase);
+            upper.prepare(phase);
+        }
+        return this;
+    }
+
+    @Override
+    protected void compute() {
+        if (lower == null) {
+            phase.apply(fromRow, toRow);
+        } else {
+            invokeAll(lower, upper);
+        }
+    }
+}
@@ -1,108 +1,327 @@
+import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Random;
-import java.util.stream.Collectors;
+import java.util.concurrent.ForkJoinPool;
 
-public class Sim {
+/**
+ * Sim runs the grid of a world in this process: every patch is heated,
+ * diffused and lets its daisy age, die and sprout every tick, on the row
+ * stripes of a ForkJoinPool if PARALLELISM is above 1. It is the one
+ * engine whose state can be cloned and saved.
+ */
+public class Sim extends AbstractSim {
 
-    List<Patch> allPatches = new ArrayList<>();
-    int tick = 1;
+    World world;
+    // runs the row-parallel phases, null when the tick is sequential
+    ForkJoinPool pool;
+    // the stripes of rows the pool runs, built on first use
+    private RowTask stripes;
+    // records the grid every FRAME_INTERVAL ticks, null when disabled
+    FrameRecorder frames;
+    // holds the cells of the world in a file other processes map, null when
+    // WORLD_MAP is off
+    WorldMap worldMap;
+    // the row phases of the tick, made once so that a tick allocates nothing
+    private final RowTask.Phase heat =
+            (fromRow, toRow) -> world.calculateTemperature(fromRow, toRow);
+    private final RowTask.Phase diffuse =
+            (fromRow, toRow) -> world.diffuse(fromRow, toRow);
+    private final RowTask.Phase propose =
+            (fromRow, toRow) -> world.proposeDemography(fromRow, toRow, seed, tick);
+    private final RowTask.Phase apply =
+            (fromRow, toRow) -> world.applyDemography(fromRow, toRow);
+
+    /**
+     * The constructor of Sim
+     * @param params the configuration of this simulation
+     * @param output the pipeline the record of every tick is published to
+     */
+    public Sim(Params params, OutputPipeline output) {
+        super(params, output);
+    }
 
     /**
      * Initialize the matrix with patches and daisies
+     *
+     * @throws IOException if the frame file cannot be created
      */
-    public void setup() {
-        initializePatches();
-        setNeighbors();
-        seedRandomly(Color.WHITE, Params.START_WHITE_PERCENTAGE);
-        seedRandomly(Color.BLACK, Params.START_BLACK_PERCENTAGE);
+    @Override
+    public void setup() throws IOException {
+        // bare patches, whose neighbors are found by index arithmetic
+        world = newWorld(seedStreams());
+        CellIndex bare = new CellIndex(world);
+        for (Species species : params.SPECIES) {
+            seedRandomly(bare, species, species.getStartPercentage());
+        }
+        // the seeds were sown straight into the cells
+        world.recountStatistics();
         setDaisiesWithRandomAge();
+        start();
     }
 
     /**
-     * Loops the plots indefinitely until the tick reaches the limit
+     * Restore a simulation from a checkpoint, to continue with the tick
+     * after the one it was saved at
      *
-     * @throws IOException
+     * @param params the configuration, whose world must have the size of
+     *               the saved one
+     * @param output the pipeline the record of every tick is published to
+     * @param file the checkpoint file
+     * @return the restored simulation
+     * @throws IOException if the checkpoint cannot be read
      */
-    public void go() throws IOException {
+    public static Sim restore(Params params, OutputPipeline output, File file)
+                                                            throws IOException {
+        Sim sim = new Sim(params, output);
+        Checkpoint.read(file, sim, params);
+        sim.start();
+        return sim;
+    }
 
-        while (tick < Params.ITERATION_LIMIT + 1) {
-            if(Params.MODE.equals(Mode.RAMP_UP_RAMP_DOWN.toString())){
-                changeLuminosity(tick);
-            }
+    /**
+     * Clone the current state of this simulation into a new one, which may
+     * run under another configuration of the same size. The clone continues
+     * from the same tick and random streams at the solar luminosity of its
+     * own configuration, see {@link #replayLuminosity()}, so clones of the
+     * same configuration run exactly like this simulation would.
+     *
+     * @param params the configuration of the clone
+     * @param output the pipeline the clone publishes its records to
+     * @return the clone
+     * @throws IOException if the frame file of the clone cannot be created
+     */
+    public Sim fork(Params params, OutputPipeline output) throws IOException {
+        Sim sim = new Sim(params, output);
+        sim.continueFrom(this);
+        sim.world = sim.newWorld(world.random.copy());
+        sim.world.copyStateFrom(world);
+        sim.world.setSolarLuminosity(sim.solarLuminosity);
+        sim.start();
+        return sim;
+    }
+
+    /**
+     * Make the world of this simulation, whose cells live in a new world map
+     * if WORLD_MAP is on
+     *
+     * @param random the random stream of the sequential demography
+     * @return the world, all bare
+     * @throws IOException if the world map cannot be created
+     */
+    World newWorld(Rng random) throws IOException {
+        if (params.WORLD_MAP) {
+            worldMap = WorldMap.open(WorldMap.defaultFile(params), params);
+        }
+        return new World(params, random, worldMap);
+    }
+
+    /**
+     * Save the state of this simulation between two ticks
+     *
+     * @param file the checkpoint file
+     * @throws IOException if the file cannot be written
+     */
+    public void saveCheckpoint(File file) throws IOException {
+        Checkpoint.write(this, file);
+    }
+
+    /**
+     * Start the worker threads and the frame file of a simulation whose
+     * world is set up, and mark the state in the world map as settled
+     */
+    private void start() throws IOException {
+        if (params.PARALLELISM > 1) {
+            pool = new ForkJoinPool(params.PARALLELISM);
+        }
+        if (params.SYNCHRONOUS_DEMOGRAPHY) {
+            world.enableSynchronousDemography();
+        }
+        if (params.FRAME_INTERVAL > 0) {
+            frames = new FrameRecorder(FrameRecorder.defaultFile(params), world,
+                    params.FRAME_TEMPERATURE_STEP,
+                    params.FRAME_TEMPERATURE_INTERVAL);
+        }
+        if (worldMap != null) {
+            worldMap.endTick(world, tick - 1);
+        }
+    }
+
+    /**
+     * Run one tick, and save the checkpoint after tick CHECKPOINT_TICK
+     *
+     * @throws IOException if the output, the frame file or the checkpoint
+     *                     fails
+     */
+    @Override
+    public void step() throws IOException {
+        super.step();
+        if (tick == params.CHECKPOINT_TICK + 1) {
+            saveCheckpoint(Checkpoint.defaultFile(params));
+        }
+    }
+
+    /**
+     * Mark the tick as over in the world map, and copy the world into the
+     * frame file when its interval is up
+     *
+     * @throws IOException if the frame file fails
+     */
+    @Override
+    void recordWorld() throws IOException {
+        if (worldMap != null) {
+            worldMap.endTick(world, tick);
+        }
+        if (frames != null && tick % params.FRAME_INTERVAL == 0) {
+            frames.record(tick);
+        }
+    }
+
+    /**
+     * Update the temperature of the world at the current solar luminosity
+     * and let the daisies age, die and sprout
+     *
+     * @throws IOException if the world lives in other processes and
+     *                     talking to them fails
+     */
+    @Override
+    void advance() throws IOException {
+        if (worldMap != null) {
+            worldMap.beginTick();
+        }
+        world.setSolarLuminosity(solarLuminosity);
 
-            allPatches.forEach(Patch::calculateTemperature);
-            allPatches.forEach(Patch::diffuse);
-            allPatches.forEach(patch -> {
-                if (patch.getDaisy() != null) {
-                    patch.getDaisy().checkSurvivability();
+        runPhase(heat);
+        lap(TickPhase.TEMPERATURE);
+        runPhase(diffuse);
+        world.swapTemperature();
+        lap(TickPhase.DIFFUSION);
+        if (params.SYNCHRONOUS_DEMOGRAPHY) {
+            runPhase(propose);
+            runPhase(apply);
+            world.collectRowStatistics();
+        } else {
+            for (int cell = 0; cell < world.size; cell++) {
+                if (world.hasDaisy(cell)) {
+                    world.checkSurvivability(cell);
                 }
-            });
+            }
+        }
+        lap(TickPhase.DEMOGRAPHY);
+    }
 
-            if(Params.EXTENSION && tick % Params.INFECTION_CYCLE == 0){
-                infectRandomly();
+    /**
+     * Compute the remaining ticks of a world without daisies analytically.
+     * <br><br>
+     * Bare ground is heated alike everywhere and diffusion keeps the total
+     * temperature, so the mean temperature m of the next tick is
+     * (m + h) / 2 for the local heating h of bare ground, whatever the
+     * temperatures of the single cells. No daisy can sprout again, so this
+     * holds until the end of the run. The cells are left at the final mean
+     * temperature, which they approach by at least half every tick.
+     *
+     * @return true, as the ticks were published
+     * @throws IOException if the output fails
+     */
+    @Override
+    boolean fastForwardBareWorld() throws IOException {
+        double mean = calculateGlobalTemperature();
+        while (tick < params.ITERATION_LIMIT + 1) {
+            if(params.MODE.equals(Mode.RAMP_UP_RAMP_DOWN.toString())){
+                changeLuminosity(tick);
             }
+            world.setSolarLuminosity(solarLuminosity);
+            mean = (mean + world.localHeating(World.EMPTY)) / 2;
+            world.temperatureSum[World.EMPTY] = mean * world.size;
 
-            outputToCSV();
-            outputToStdOut();
+            publishRecord();
             tick++;
         }
+        world.temperature.fill(mean);
+        world.recountStatistics();
+        return true;
     }
 
     /**
-     * [Extension]:
-     * Randomly infect a healthy daisy. If all daisies are infected, do nothing.
+     * Release the worker threads, close the frame file and the world map,
+     * which keeps the last tick, and report the timing of the phases.
+     * Finishing again does nothing.
+     *
+     * @throws IOException if the frame file or the world map cannot be
+     *                     closed
      */
-    public void infectRandomly(){
-        List<Patch> potentialInfectingPlaces =
-                allPatches
-                        .stream()
-                        .filter(p ->
-                                    p.getDaisy() != null &&
-                                    !p.getDaisy().isInfected()
-                                )
-                        .collect(Collectors.toList());
+    @Override
+    public void finish() throws IOException {
+        if (pool != null) {
+            pool.shutdown();
+        }
+        if (frames != null) {
+            frames.close();
+            frames = null;
+        }
+        if (worldMap != null) {
+            worldMap.close();
+            worldMap = null;
+        }
+        super.finish();
+    }
 
-        if(!potentialInfectingPlaces.isEmpty()){
-            int index = new Random().nextInt(potentialInfectingPlaces.size());
-            potentialInfectingPlaces.get(index).getDaisy().setInfected(true);
+    /**
+     * Apply a phase to all rows of the world, split into stripes on the pool
+     * if the tick runs in parallel
+     * @param phase the phase of the tick
+     */
+    private void runPhase(RowTask.Phase phase) {
+        if (pool == null) {
+            phase.apply(0, world.xSize);
+        } else {
+            if (stripes == null) {
+                // a few stripes per worker so that uneven stripes balance out
+                int grain = Math.max(1, world.xSize / (params.PARALLELISM * 4));
+                stripes = new RowTask(0, world.xSize, grain);
+            }
+            pool.invoke(stripes.prepare(phase));
         }
     }
 
     /**
-     * Change the solar luminosity according to time(tick)
-     * @param tick the steps this program has run
+     * [Extension]:
+     * Randomly infect a healthy daisy. If all daisies are infected, do nothing.
      */
-    private void changeLuminosity(int tick) {
-        if(tick>= Params.RISE_START &&
-                tick < Params.RISE_START + Params.RISE_TICKS){
-            increaseLuminosity();
+    @Override
+    public void infectRandomly() {
+        int healthy = calculateGlobalPopulation();
+        for (int c = 1; c < world.covers; c++) {
+            healthy -= world.infectedPopulation[c];
         }
-        if(tick >= Params.DROP_START
-                && tick < Params.DROP_START + Params.DROP_TICKS){
-            decreaseLuminosity();
+
+        if(healthy > 0){
+            int index = infectionRandom.nextInt(healthy);
+            world.setInfected(world.healthyDaisy(index), true);
+            world.infections++;
         }
     }
 
     /**
-     * Decrease the solar luminosity according to the speed set in config
+     * @return the number of daisies born since the world was made
+     */
+    @Override
+    public long countBirths() {
+        return world.births;
+    }
+
+    /**
+     * @return the number of daisies died since the world was made
      */
-    private void decreaseLuminosity() {
-        double decreaseSpeed =
-                (Params.SOLAR_LUMINOSITY_PEAK - Params.SOLAR_LUMINOSITY_END)
-                    / Params.DROP_TICKS;
-        Params.SOLAR_LUMINOSITY -= decreaseSpeed;
+    @Override
+    public long countDeaths() {
+        return world.deaths;
     }
 
     /**
-     * Increase the solar luminosity according to the speed set in config
+     * @return the number of daisies infected since the world was made
      */
-    private void increaseLuminosity() {
-        double increaseSpeed =
-                (Params.SOLAR_LUMINOSITY_PEAK - Params.SOLAR_LUMINOSITY)
-                        / Params.RISE_TICKS;
-        Params.SOLAR_LUMINOSITY += increaseSpeed;
+    @Override
+    public long countInfections() {
+        return world.infections;
     }
 
     /**
@@ -110,182 +329,104 @@ public class Sim {
      *
      * @return the number of daisies
      */
+    @Override
     public int calculateGlobalPopulation() {
-        return (int) allPatches
-                .stream()
-                .filter(p -> p.getDaisy() != null)
-                .count();
+        return world.size - world.population[World.EMPTY];
     }
 
     /**
-     * Count the number of daisies of chosen color
-     * @param color the color of daisies
-     * @return the number of certain color daisy
+     * Count the number of daisies of chosen species
+     * @param species the species of daisies
+     * @return the number of daisies of that species
      */
-    public int calculatePopulation(Color color) {
-        return (int) allPatches
-                .stream()
-                .filter(p ->
-                            p.getDaisy() != null &&
-                            p.getDaisy().getColor() == color
-                        )
-                .count();
+    @Override
+    public int calculatePopulation(Species species) {
+        return world.population[World.coverOf(species)];
     }
 
-    public int calculateInfectedPopulation(Color color){
-        return (int) allPatches
-                .stream()
-                .filter(p ->
-                            p.getDaisy() != null &&
-                            p.getDaisy().getColor() == color &&
-                            p.getDaisy().isInfected()
-                        )
-                .count();
+    /**
+     * Count the number of infected daisies of chosen species
+     * @param species the species of daisies
+     * @return the number of infected daisies of that species
+     */
+    @Override
+    public int calculateInfectedPopulation(Species species){
+        return world.infectedPopulation[World.coverOf(species)];
     }
 
     /**
-     * Calculate the global temperature by adding up the temperatures
-     * of each patch and divide by the number of patches
+     * Calculate the global temperature by adding up the temperature sums
+     * kept for each cover and divide by the number of patches
      *
      * @return the mean of all patches' temperature
      */
+    @Override
     public double calculateGlobalTemperature() {
-        int totalTemperature = 0;
-        for (Patch patch : allPatches) {
-            totalTemperature += patch.getTemperature();
+        double totalTemperature = 0;
+        for (int c = 0; c < world.covers; c++) {
+            totalTemperature += world.temperatureSum[c];
         }
-        return totalTemperature / allPatches.size();
+        return totalTemperature / world.size;
     }
 
     /**
      * Calculate the average of the sum of local temperature
-     * for a specific color of daisies
+     * for a specific species of daisies
      *
      * @return the average local temperature
      * for a particular type of daisies if they are not extinct
      * , otherwise return "NaN"
      */
-    public double calculateLocalTemperatureAvg(Color color){
-        int population = calculatePopulation(color);
-        double localTempSum =
-                allPatches
-                        .stream()
-                        .filter(p -> p.getDaisy() != null &&
-                                     p.getDaisy().getColor() == color)
-                        .mapToDouble(Patch::getTemperature).sum();
-
-        // if the target color of daisies are not extinct:
-        //      round the local temperature average up to 2 decimal
-        // otherwise: NaN
-        return population == 0
-                ? Double.NaN
-                :(double)Math.round(localTempSum/population * 100) / 100;
-    }
-
-    /**
-     * Initialize all the patches
-     */
-    public void initializePatches() {
-        for (int i = 0; i < Params.X_SIZE; i++) {
-            for (int j = 0; j < Params.Y_SIZE; j++) {
-                Patch patch = new Patch(i, j);
-                allPatches.add(patch);
-            }
-        }
+    @Override
+    public double calculateLocalTemperatureAvg(Species species){
+        byte cover = World.coverOf(species);
+        return localTemperatureAvg(world.population[cover],
+                world.temperatureSum[cover]);
     }
 
     /**
-     * Set the neighbors property for each patch
+     * Get a view of the patch at the given coordinate
+     * @param x the x coordinate
+     * @param y the y coordinate
+     * @return the patch
      */
-    public void setNeighbors() {
-        for (Patch patch : allPatches) {
-            List<Patch> neighbors = allPatches.stream()
-                    // Find all the patches in the matrix within 1 distance of the current patch
-                    .filter(p -> Math.abs(p.getCoordinateX() - patch.getCoordinateX()) <= 1)
-                    .filter(p -> Math.abs(p.getCoordinateY() - patch.getCoordinateY()) <= 1)
-                    // Filter out the current patch itself
-                    .filter(p -> p != patch)
-                    .collect(Collectors.toList());
-            patch.setNeighbors(neighbors);
-        }
+    public Patch getPatch(int x, int y) {
+        return new Patch(world, world.cellOf(x, y));
     }
 
     /**
-     * Seed daisies of chosen color randomly on the matrix
+     * Seed daisies of chosen species randomly on the matrix. The daisies are
+     * written straight into the cells, so the statistics of the world must
+     * be recounted once the seeding is done.
      *
-     * @param color      the color of daisies to be seeded
+     * @param potentialSeedingPlaces the cells without daisies, from which
+     *                               the seeded cells are removed
+     * @param species    the species of daisies to be seeded
      * @param percentage the proportion of the daisies in the whole matrix
      */
-    public void seedRandomly(Color color, double percentage) {
-        // Find patches without daisies as the potential seeding place
-        List<Patch> potentialSeedingPlaces =
-                allPatches
-                        .stream()
-                        .filter(p -> p.getDaisy() == null)
-                        .collect(Collectors.toList());
-
-        int matrixSize = Params.X_SIZE * Params.Y_SIZE;
+    public void seedRandomly(CellIndex potentialSeedingPlaces, Species species,
+                             double percentage) {
+        int matrixSize = params.X_SIZE * params.Y_SIZE;
         // Calculate the amount of daisies to be seeded
         int size = (int) Math.round(percentage * matrixSize);
+        byte cover = World.coverOf(species);
 
-        List<Patch> seedingPlaces = new ArrayList<>();
         for (int i = 0; i < size; i++) {
-            // Select one seeding place randomly
-            int index = new Random().nextInt(potentialSeedingPlaces.size());
-            seedingPlaces.add(potentialSeedingPlaces.get(index));
-            // Remove the added seeding place from the wait list
-            potentialSeedingPlaces.remove(index);
+            // Select one seeding place randomly and remove it from the index
+            int index = setupRandom.nextInt(potentialSeedingPlaces.count());
+            int cell = potentialSeedingPlaces.take(index);
+            world.cover.set(cell, cover);
         }
-
-        seedingPlaces.forEach(patch -> patch.setDaisy(Daisy.sproutDaisy(color,patch)));
     }
 
     /**
      * Randomly set the age of all daisies in the matrix
      */
     public void setDaisiesWithRandomAge() {
-        allPatches.stream().filter(p -> p.getDaisy() != null)
-                .forEach(p ->
-                        p.getDaisy()
-                         .setAge(new Random().nextInt(Params.MAX_AGE))
-                );
-    }
-
-    /**
-     * Write data to a csv file
-     * @throws IOException if data outputting fails
-     */
-    public void outputToCSV() throws IOException {
-        // Record the result in CSV
-        String[] csvData = {
-                String.valueOf(tick),
-                String.valueOf(calculatePopulation(Color.WHITE)),
-                String.valueOf(calculateLocalTemperatureAvg(Color.WHITE)),
-                String.valueOf(calculateInfectedPopulation(Color.WHITE)),
-                String.valueOf(calculatePopulation(Color.BLACK)),
-                String.valueOf(calculateLocalTemperatureAvg(Color.BLACK)),
-                String.valueOf(calculateInfectedPopulation(Color.BLACK)),
-                String.valueOf(calculateGlobalPopulation()),
-                String.valueOf(calculateGlobalTemperature())};
-        WriterCSV.writeToCSV(csvData);
-    }
-
-    /**
-     * Print record for each tick to standard output
-     */
-    public void outputToStdOut(){
-        System.out.println("Tick: " + tick);
-        System.out.println("White_Daisies: " + calculatePopulation(Color.WHITE));
-        System.out.println("White_Daisies_Local_Temperature_Average: "
-                + calculateLocalTemperatureAvg(Color.WHITE));
-        System.out.println("Infected_White_Daisies: "
-                + calculateInfectedPopulation(Color.WHITE));
-        System.out.println("Black_Daisies: " + calculatePopulation(Color.BLACK));
-        System.out.println("Black_Daisies_Local_Temperature_Average: "
-                + calculateLocalTemperatureAvg(Color.BLACK));
-        System.out.println("Infected_Black_Daisies: "
-                + calculateInfectedPopulation(Color.BLACK));
-        System.out.println("Global_Population: " + calculateGlobalPopulation());
-        System.out.println("Global_Temperature: " + calculateGlobalTemperature());
+        for (int cell = 0; cell < world.size; cell++) {
+            if (world.hasDaisy(cell)) {
+                world.age.set(cell, (byte) setupRandom.nextInt(Params.MAX_AGE));
+            }
+        }
     }
 }
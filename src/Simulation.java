@@ -0,0 +1,99 @@
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Simulation is what every engine of a run offers: set up, step tick by
+ * tick or run to the end, and finish. The grid of one process is a
+ * {@link Sim}, which can also be cloned and saved; the mean-field
+ * approximation is a {@link MeanFieldSim} and a world spread over worker
+ * processes a {@link TiledSim}, neither of which can.
+ */
+public interface Simulation {
+
+    /**
+     * Seed a new world
+     *
+     * @throws IOException if an output file cannot be created or a worker
+     *                     process cannot be started
+     */
+    void setup() throws IOException;
+
+    /**
+     * Run one tick and publish its record
+     *
+     * @throws IOException if the output fails
+     */
+    void step() throws IOException;
+
+    /**
+     * Run the ticks up to ITERATION_LIMIT, or until the steady state if
+     * set, and finish, even if a tick fails
+     *
+     * @throws IOException if the output fails
+     */
+    void go() throws IOException;
+
+    /**
+     * Release the threads, files and processes of the simulation; finishing
+     * again does nothing
+     *
+     * @throws IOException if an output file cannot be closed
+     */
+    void finish() throws IOException;
+
+    /**
+     * Make a simulation on the engine of a configuration, not yet set up
+     * @param params the configuration of the simulation
+     * @param output the pipeline the record of every tick is published to
+     * @return a {@link MeanFieldSim} if ENGINE is MEAN_FIELD, a
+     *         {@link TiledSim} if TILES is set, otherwise a {@link Sim}
+     */
+    static Simulation create(Params params, OutputPipeline output) {
+        if (params.ENGINE == Engine.MEAN_FIELD) {
+            return new MeanFieldSim(params, output);
+        }
+        if (params.TILES > 0) {
+            return new TiledSim(params, output);
+        }
+        return new Sim(params, output);
+    }
+
+    /**
+     * Restore a simulation from a checkpoint, see
+     * {@link Sim#restore(Params, OutputPipeline, File)}, into worker
+     * processes if TILES is set
+     * @param params the configuration, whose world must have the size of
+     *               the saved one
+     * @param output the pipeline the record of every tick is published to
+     * @param file the checkpoint file
+     * @return the restored simulation, a {@link TiledSim} if TILES is set
+     * @throws IOException if the checkpoint cannot be read or a worker
+     *                     cannot be started
+     */
+    static Simulation restore(Params params, OutputPipeline output, File file)
+                                                            throws IOException {
+        if (params.TILES > 0) {
+            return TiledSim.restore(params, output, file);
+        }
+        return Sim.restore(params, output, file);
+    }
+
+    /**
+     * Clone the current state of a simulation into a new one, see
+     * {@link Sim#fork(Params, OutputPipeline)}, split over worker processes
+     * if TILES is set
+     * @param template the simulation to clone
+     * @param params the configuration of the clone
+     * @param output the pipeline the clone publishes its records to
+     * @return the clone, a {@link TiledSim} if TILES is set
+     * @throws IOException if an output file of the clone cannot be created
+     *                     or a worker cannot be started
+     */
+    static Simulation fork(Sim template, Params params, OutputPipeline output)
+                                                            throws IOException {
+        if (params.TILES > 0) {
+            return TiledSim.split(template, params, output);
+        }
+        return template.fork(params, output);
+    }
+}
@@ -0,0 +1,51 @@
+/**
+ * Species is one kind of daisy of a configuration: its name, the albedo
+ * of its petals and the proportion of the world it is seeded on.
+ * <br><br>
+ * The species are listed by SPECIES in "config.properties", and a species
+ * NAME reads its albedo from ALBEDO_OF_NAMES and its start percentage from
+ * START_NAME_PERCENTAGE. A daisy of the species of index i has the cover
+ * code i + 1 in the {@link World}.
+ */
+public final class Species {
+
+    private final int index;
+    private final String name;
+    private final double albedo;
+    private final double startPercentage;
+
+    /**
+     * The constructor of Species
+     * @param index the position of the species in SPECIES
+     * @param name the upper case name of the species
+     * @param albedo the albedo of its daisies
+     * @param startPercentage the proportion of the world seeded with it
+     */
+    public Species(int index, String name, double albedo, double startPercentage) {
+        this.index = index;
+        this.name = name;
+        this.albedo = albedo;
+        this.startPercentage = startPercentage;
+    }
+
+    public int getIndex() {
+        return index;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public double getAlbedo() {
+        return albedo;
+    }
+
+    public double getStartPercentage() {
+        return startPercentage;
+    }
+
+    @Override
+    public String toString() {
+        return name + "(albedo=" + albedo + ", start=" + startPercentage + ")";
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * SteadyState watches the records of a simulation for a steady state.
+ * <br><br>
+ * The records are split into consecutive windows of a fixed number of ticks.
+ * At the end of a window, the mean and standard deviation of every metric
+ * over the window are compared relative to the size of the mean, or to 1 for
+ * means smaller than 1: the metrics are steady when every change of the mean
+ * since the previous window is within a tolerance, and every standard
+ * deviation within a noise level. The noise level allows for the
+ * fluctuations of a stochastic run that has settled. A metric that is NaN throughout both windows,
+ * the local temperature of extinct daisies, is steady as well.
+ */
+public class SteadyState {
+
+    private final int window;
+    private final double tolerance;
+    private final double noise;
+    private final Metrics layout;
+    private final int metrics;
+
+    // the records of the current window, one after another
+    private final double[] records;
+    private int filled;
+
+    // the means of the previous and the current window, valid once a
+    // window is complete
+    private double[] previousMean;
+    private double[] mean;
+    private boolean hasPrevious;
+
+    /**
+     * @param window the number of ticks of a window
+     * @param tolerance the change of the means allowed between two windows,
+     *                  relative to their size
+     * @param noise the standard deviation allowed within a window, relative
+     *              to the size of the mean
+     * @param layout the layout of the records
+     */
+    public SteadyState(int window, double tolerance, double noise,
+                       Metrics layout) {
+        this.window = window;
+        this.tolerance = tolerance;
+        this.noise = noise;
+        this.layout = layout;
+        this.metrics = layout.WIDTH - 1;
+        this.records = new double[window * layout.WIDTH];
+        this.previousMean = new double[layout.WIDTH];
+        this.mean = new double[layout.WIDTH];
+    }
+
+    /**
+     * Add the record of a tick
+     * @param record the record, laid out as described by {@link Metrics}
+     * @return true if the window it completes shows a steady state
+     */
+    public boolean add(double[] record) {
+        System.arraycopy(record, 0, records, filled * layout.WIDTH, layout.WIDTH);
+        if (++filled < window) {
+            return false;
+        }
+        filled = 0;
+
+        double[] swap = previousMean;
+        previousMean = mean;
+        mean = swap;
+        boolean steady = hasPrevious;
+        for (int column = 1; column <= metrics; column++) {
+            double sum = 0;
+            int nans = 0;
+            for (int tick = 0; tick < window; tick++) {
+                double value = records[tick * layout.WIDTH + column];
+                if (Double.isNaN(value)) {
+                    nans++;
+                } else {
+                    sum += value;
+                }
+            }
+            if (nans == window) {
+                mean[column] = Double.NaN;
+                steady &= Double.isNaN(previousMean[column]);
+                continue;
+            }
+            mean[column] = sum / window;
+            if (nans > 0) {
+                steady = false;
+                continue;
+            }
+            double squares = 0;
+            for (int tick = 0; tick < window; tick++) {
+                double deviation = records[tick * layout.WIDTH + column] - mean[column];
+                squares += deviation * deviation;
+            }
+            double scale = Math.max(1, Math.abs(mean[column]));
+            steady &= Math.sqrt(squares / window) <= noise * scale
+                    && Math.abs(mean[column] - previousMean[column])
+                            <= tolerance * scale;
+        }
+        hasPrevious = true;
+        return steady;
+    }
+
+    /**
+     * Fill a record with the steady values, the means over the last window,
+     * the counts rounded to whole numbers
+     * @param record the record, whose tick is left unchanged
+     */
+    public void steadyRecord(double[] record) {
+        for (int column = 1; column <= metrics; column++) {
+            record[column] = layout.isCount(column)
+                    ? Math.round(mean[column])
+                    : mean[column];
+        }
+    }
+}
@@ -0,0 +1,11 @@
+/**
+ * What a simulation does once its metrics have reached a steady state
+ */
+public enum SteadyStateAction {
+    // run every tick, never looking for a steady state
+    OFF,
+    // stop the run, so the output ends at the steady tick
+    STOP,
+    // write the steady values for the remaining ticks without simulating them
+    FAST_FORWARD
+}
@@ -0,0 +1,145 @@
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sweep runs one simulation for every combination of a set of parameter
+ * values, several at once in one JVM.
+ * <br><br>
+ * Usage: {@code java Sweep NAME=values ...}, where the values of a parameter
+ * are either a range "start:end:step", end inclusive, or a list "a,b,c".
+ * Every other parameter comes from "config.properties". The simulations run
+ * on SWEEP_THREADS threads without console output, each writing its own
+ * output files, named after the configured output name followed by the
+ * values of the swept parameters.
+ * <br><br>
+ * If RESTORE_FROM is set, the checkpoint is read once and every simulation
+ * starts from a clone of it.
+ */
+public class Sweep {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 0) {
+            System.err.println("Usage: java Sweep NAME=start:end:step "
+                    + "NAME=a,b,c ...");
+            System.exit(1);
+        }
+        Params base = Params.configParams();
+
+        String[] names = new String[args.length];
+        List<List<String>> values = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            int separator = args[i].indexOf('=');
+            if (separator < 1) {
+                throw new Exception("Expected NAME=values, got " + args[i]);
+            }
+            names[i] = args[i].substring(0, separator).trim();
+            if (!base.hasParameter(names[i])) {
+                throw new Exception("Unknown parameter " + names[i]);
+            }
+            values.add(parseValues(args[i].substring(separator + 1).trim()));
+        }
+
+        List<Params> points = new ArrayList<>();
+        addPoints(base, names, values, 0, base.outputName(), points);
+        System.out.println("Seed: " + base.SEED);
+        System.out.println("Sweeping " + points.size() + " simulations");
+
+        int threads = base.SWEEP_THREADS == 0
+                ? Runtime.getRuntime().availableProcessors()
+                : base.SWEEP_THREADS;
+        Sim template = null;
+        if (!base.RESTORE_FROM.isEmpty()) {
+            // only cloned, so it needs neither an output nor threads
+            template = new Sim(base, null);
+            Checkpoint.read(new File(base.RESTORE_FROM), template, base);
+        }
+        Sim start = template;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<?>> runs = new ArrayList<>();
+        for (Params point : points) {
+            runs.add(pool.submit(() -> {
+                App.run(point, start);
+                System.out.println("Done: " + point.outputName());
+                return null;
+            }));
+        }
+        pool.shutdown();
+
+        int failed = 0;
+        for (int i = 0; i < runs.size(); i++) {
+            try {
+                runs.get(i).get();
+            } catch (ExecutionException e) {
+                failed++;
+                System.err.println("Failed: " + points.get(i).outputName()
+                        + ": " + e.getCause());
+            }
+        }
+        if (failed > 0) {
+            System.err.println(failed + " of " + points.size()
+                    + " simulations failed");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Parse the values of one parameter
+     * @param text a range "start:end:step" or a list "a,b,c"
+     * @return the values in order
+     * @throws Exception if a range is malformed or empty
+     */
+    static List<String> parseValues(String text) throws Exception {
+        List<String> values = new ArrayList<>();
+        String[] range = text.split(":");
+        if (range.length == 3) {
+            // decimal arithmetic, so that 0.1 steps give clean values
+            BigDecimal start = new BigDecimal(range[0].trim());
+            BigDecimal end = new BigDecimal(range[1].trim());
+            BigDecimal step = new BigDecimal(range[2].trim());
+            if (step.signum() <= 0) {
+                throw new Exception("The step of " + text
+                        + " should be positive");
+            }
+            for (BigDecimal value = start; value.compareTo(end) <= 0;
+                 value = value.add(step)) {
+                values.add(value.toPlainString());
+            }
+        } else if (range.length == 1) {
+            for (String value : text.split(",")) {
+                values.add(value.trim());
+            }
+        } else {
+            throw new Exception("Expected start:end:step or a,b,c, got " + text);
+        }
+        if (values.isEmpty()) {
+            throw new Exception(text + " gives no values");
+        }
+        return values;
+    }
+
+    /**
+     * Add the configuration of every combination of the values of the
+     * parameters from the index-th on
+     */
+    private static void addPoints(Params params, String[] names,
+                                  List<List<String>> values, int index,
+                                  String name, List<Params> points)
+                                                            throws Exception {
+        if (index == names.length) {
+            points.add(params.with("CONSOLE_OUTPUT", ConsoleOutput.QUIET.name())
+                    .with("OUTPUT_NAME", name));
+            return;
+        }
+        for (String value : values.get(index)) {
+            addPoints(params.with(names[index], value), names, values,
+                    index + 1, name + "-" + names[index] + "_" + value, points);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * TemperatureKernel runs the inner loops of the temperature phases over
+ * many cells at once. It handles as much of a range as it can and returns
+ * where it stopped, and {@link World} finishes the rest cell by cell, so a
+ * kernel only has to deal with the cells that suit it.
+ * <br><br>
+ * Every kernel must compute exactly what the scalar loops of World compute,
+ * operation by operation, so that the results do not depend on the kernel.
+ * <br><br>
+ * The vector kernel, vector/VectorKernel.java, uses the incubating Java
+ * Vector API and is only compiled and loaded when the module is added:
+ * <pre>
+ *   javac --add-modules jdk.incubator.vector -d out src/*.java vector/*.java
+ *   java --add-modules jdk.incubator.vector -cp out App
+ * </pre>
+ * Otherwise the scalar kernel is selected at startup.
+ */
+public interface TemperatureKernel {
+
+    /** The kernel that leaves every cell to the scalar loops of World */
+    TemperatureKernel SCALAR = new TemperatureKernel() {
+        @Override
+        public int heat(double[] temperature, byte[] cover, double[] heating,
+                        int from, int to) {
+            return from;
+        }
+
+        @Override
+        public int diffuse(double[] current, double[] next, int row,
+                           int above, int below, int from, int to) {
+            return from;
+        }
+
+        @Override
+        public String toString() {
+            return "scalar";
+        }
+    };
+
+    /**
+     * Heat cells by the local heating of their cover,
+     * temperature = (temperature + heating[cover]) / 2
+     * @param temperature the temperatures, updated in place
+     * @param cover the cover codes
+     * @param heating the local heating of every cover code
+     * @param from the first cell, inclusive
+     * @param to the last cell, exclusive
+     * @return the first cell that was not heated, between from and to
+     */
+    int heat(double[] temperature, byte[] cover, double[] heating,
+             int from, int to);
+
+    /**
+     * Diffuse the cells of a row that have all eight neighbors, the left
+     * and right ones in the same columns of the rows above and below
+     * @param current the temperatures before the step
+     * @param next the temperatures after the step, written
+     * @param row the cell id of the first cell of the row
+     * @param above the cell id of the first cell of the row above
+     * @param below the cell id of the first cell of the row below
+     * @param from the first column, at least 1
+     * @param to the last column, exclusive, at most Y_SIZE - 1
+     * @return the first column that was not diffused, between from and to
+     */
+    int diffuse(double[] current, double[] next, int row, int above,
+                int below, int from, int to);
+
+    /**
+     * Select the kernel of a configuration
+     * @param type the configured kernel
+     * @return the vector kernel if it is wanted and available, otherwise
+     * the scalar one
+     */
+    static TemperatureKernel of(KernelType type) {
+        if (type == KernelType.SCALAR) {
+            return SCALAR;
+        }
+        TemperatureKernel vector = Loader.KERNEL;
+        if (vector != null) {
+            return vector;
+        }
+        if (type == KernelType.VECTOR) {
+            System.err.println("The vector kernel is not available, "
+                    + "running on the scalar kernel: " + Loader.MISSING);
+        }
+        return SCALAR;
+    }
+
+    /**
+     * Holds the vector kernel, loaded on first use
+     */
+    final class Loader {
+        static final TemperatureKernel KERNEL;
+        // why the vector kernel could not be loaded
+        static final String MISSING;
+
+        static {
+            TemperatureKernel kernel = null;
+            String missing = null;
+            try {
+                kernel = (TemperatureKernel) Class.forName("VectorKernel")
+                        .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                missing = e.toString();
+            }
+            KERNEL = kernel;
+            MISSING = missing;
+        }
+
+        private Loader() {
+        }
+    }
+}
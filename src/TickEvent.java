@@ -0,0 +1,65 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * TickEvent is the Java Flight Recorder event {@link Instrumentation} emits
+ * for every tick, spanning the tick. It is only recorded while a recording
+ * is running, e.g. with {@code java -XX:StartFlightRecording=filename=run.jfr App}.
+ */
+@Name("daisyworld.Tick")
+@Label("Tick")
+@Category("Daisyworld")
+@Description("One tick of a simulation, with the time of its phases")
+@StackTrace(false)
+class TickEvent extends Event {
+
+    @Label("Simulation")
+    String simulation;
+
+    @Label("Tick")
+    int tick;
+
+    @Label("Temperature")
+    @Timespan(Timespan.NANOSECONDS)
+    long temperature;
+
+    @Label("Diffusion")
+    @Timespan(Timespan.NANOSECONDS)
+    long diffusion;
+
+    @Label("Demography")
+    @Timespan(Timespan.NANOSECONDS)
+    long demography;
+
+    @Label("Infection")
+    @Timespan(Timespan.NANOSECONDS)
+    long infection;
+
+    @Label("Output")
+    @Timespan(Timespan.NANOSECONDS)
+    long output;
+
+    @Label("Births")
+    long births;
+
+    @Label("Deaths")
+    long deaths;
+
+    @Label("Infections")
+    long infections;
+
+    // the bytes the writer thread wrote since the previous tick, which
+    // lags behind the records of the ticks
+    @Label("Output Written")
+    @DataAmount
+    long outputBytes;
+
+    @Label("Population")
+    int population;
+}
@@ -0,0 +1,15 @@
+/**
+ * The phases of a tick, as timed by {@link Instrumentation}
+ */
+public enum TickPhase {
+    // heating every cell by the sun
+    TEMPERATURE,
+    // diffusing the temperature to the neighbors
+    DIFFUSION,
+    // the daisies ageing, dying, infecting and sprouting
+    DEMOGRAPHY,
+    // the random infection of the extension
+    INFECTION,
+    // computing and publishing the record, and recording frames
+    OUTPUT
+}
@@ -0,0 +1,319 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.Properties;
+
+/**
+ * TileWorker is a worker process of a tiled world: it owns a stripe of rows
+ * of the world and runs the phases of every tick on them as {@link TiledSim}
+ * tells it to, over a socket on the loopback interface.
+ * <br><br>
+ * The stripe is a {@link World} with a halo row above and below the owned
+ * rows, see {@link World#tile(Params, int, int)}; the worker never sees the
+ * rest of the world. It starts with the properties, the int64 seed of the
+ * synchronous demography and the int32 first and last row owned, then the
+ * initial state of the owned cells, either
+ * <pre>
+ *   PLACEMENTS  the daisies seeded, each an int32 cell counted from the
+ *               first owned cell and an int8 species index, ended by an
+ *               int32 -1, then the int8 age of every daisy in cell order
+ *   CELLS       the int8 state of every cell, the cover code with the
+ *               infection flag in the highest bit, then the int8 age and
+ *               the float64 temperature of every cell
+ * </pre>
+ * and answers with the statistics of its rows as it answers APPLY. A tick
+ * takes three exchanges with the coordinator:
+ * <pre>
+ *   HEAT        float64 solar luminosity
+ *               -> the first and the last owned row, heated
+ *   DEMOGRAPHY  int32 tick, the halo row above and below, each an int8
+ *               present flag followed by the row if present
+ *               -> the proposals on the halo row above and below
+ *   APPLY       the proposals on the first owned row, from the stripe
+ *               above, and on the last owned row, from the stripe below
+ *               -> for every owned row, int32 population, int32 infected
+ *                  population and float64 temperature sum of every cover
+ *                  code, then int32 healthy daisies; then int64
+ *                  births, deaths and infections of the stripe so far
+ * </pre>
+ * and the random infection one more, INFECT int32 owned row, int32 rank of
+ * a healthy daisy within the row -> int8 its cover code. A row is sent as
+ * Y_SIZE float64 temperatures, Y_SIZE int8 cover codes and Y_SIZE int8
+ * infection flags; proposals as int32 count and the column of every
+ * infected cell, then int32 count and the column and the parent column of
+ * every claimed cell. All numbers are big-endian.
+ * <br><br>
+ * Usage, started by TiledSim: {@code java TileWorker <port>}
+ */
+public class TileWorker {
+
+    static final byte HEAT = 1;
+    static final byte DEMOGRAPHY = 2;
+    static final byte APPLY = 3;
+    static final byte INFECT = 4;
+    static final byte STOP = 5;
+    static final byte PLACEMENTS = 6;
+    static final byte CELLS = 7;
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final World world;
+    private final long seed;
+    // the number of rows owned, local rows 1 to rows inclusive
+    private final int rows;
+    private final int ySize;
+    private int tick;
+
+    // the cover codes or infection flags of a row on the way
+    private final byte[] row;
+
+    private final int[] population;
+    private final int[] infectedPopulation;
+    private final double[] temperatureSum;
+
+    public static void main(String[] args) throws Exception {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                Integer.parseInt(args[0]))) {
+            socket.setTcpNoDelay(true);
+            DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(socket.getInputStream(), 1 << 16));
+            DataOutputStream out = new DataOutputStream(
+                    new BufferedOutputStream(socket.getOutputStream(), 1 << 16));
+            new TileWorker(in, out).run();
+        }
+    }
+
+    /**
+     * Receive the configuration and the initial state of the stripe, and
+     * answer with the statistics of its rows
+     */
+    private TileWorker(DataInputStream in, DataOutputStream out)
+                                                            throws Exception {
+        this.in = in;
+        this.out = out;
+        byte[] text = new byte[in.readInt()];
+        in.readFully(text);
+        Properties properties = new Properties();
+        properties.load(new ByteArrayInputStream(text));
+        Params params = new Params(properties);
+        seed = in.readLong();
+        int fromRow = in.readInt();
+        int toRow = in.readInt();
+
+        world = World.tile(params, fromRow, toRow);
+        rows = toRow - fromRow;
+        ySize = world.ySize;
+        row = new byte[ySize];
+        byte source = in.readByte();
+        switch (source) {
+            case PLACEMENTS:
+                readPlacements(params);
+                break;
+            case CELLS:
+                readCells();
+                break;
+            default:
+                throw new IOException("Unknown initial state " + source);
+        }
+        world.recountStatistics();
+        world.enableSynchronousDemography();
+
+        population = new int[world.covers];
+        infectedPopulation = new int[world.covers];
+        temperatureSum = new double[world.covers];
+        writeStatistics();
+        out.flush();
+    }
+
+    /**
+     * Place the daisies seeded on the owned rows, then set their ages
+     */
+    private void readPlacements(Params params) throws IOException {
+        int first = ySize;
+        int end = (rows + 1) * ySize;
+        for (int cell = in.readInt(); cell >= 0; cell = in.readInt()) {
+            world.placeDaisy(first + cell, params.SPECIES[in.readByte()], 0);
+        }
+        for (int cell = first; cell < end; cell++) {
+            if (world.hasDaisy(cell)) {
+                world.age.set(cell, in.readByte());
+            }
+        }
+    }
+
+    /**
+     * Read the state, age and temperature of every owned cell
+     */
+    private void readCells() throws IOException {
+        int first = ySize;
+        int end = (rows + 1) * ySize;
+        for (int cell = first; cell < end; cell++) {
+            byte state = in.readByte();
+            world.cover.set(cell, (byte) (state & 0x7F));
+            world.infected.set(cell, state < 0);
+        }
+        for (int cell = first; cell < end; cell++) {
+            world.age.set(cell, in.readByte());
+        }
+        for (int cell = first; cell < end; cell++) {
+            world.temperature.set(cell, in.readDouble());
+        }
+    }
+
+    /**
+     * Serve the requests of the coordinator until it stops the worker
+     */
+    private void run() throws IOException {
+        while (true) {
+            byte request = in.readByte();
+            switch (request) {
+                case HEAT:
+                    world.setSolarLuminosity(in.readDouble());
+                    world.calculateTemperature(1, rows + 1);
+                    writeRow(1);
+                    writeRow(rows);
+                    break;
+                case DEMOGRAPHY:
+                    tick = in.readInt();
+                    readHalo(0);
+                    readHalo(rows + 1);
+                    world.diffuse(1, rows + 1);
+                    world.swapTemperature();
+                    world.proposeDemography(1, rows + 1, seed, tick);
+                    writeProposals(0);
+                    writeProposals(rows + 1);
+                    break;
+                case APPLY:
+                    readProposals(1, 0);
+                    readProposals(rows, rows + 1);
+                    world.applyDemography(1, rows + 1);
+                    world.countRowEvents(1, rows + 1);
+                    writeStatistics();
+                    break;
+                case INFECT:
+                    out.writeByte(infect(in.readInt() + 1, in.readInt()));
+                    break;
+                case STOP:
+                    return;
+                default:
+                    throw new IOException("Unknown request " + request);
+            }
+            out.flush();
+        }
+    }
+
+    private void writeRow(int x) throws IOException {
+        for (int cell = x * ySize; cell < (x + 1) * ySize; cell++) {
+            out.writeDouble(world.temperature.get(cell));
+        }
+        world.cover.get(x * ySize, row, 0, ySize);
+        out.write(row, 0, ySize);
+        world.infected.get(x * ySize, row, 0, ySize);
+        out.write(row, 0, ySize);
+    }
+
+    private void readHalo(int x) throws IOException {
+        if (!in.readBoolean()) {
+            return;
+        }
+        for (int cell = x * ySize; cell < (x + 1) * ySize; cell++) {
+            world.temperature.set(cell, in.readDouble());
+        }
+        in.readFully(row, 0, ySize);
+        world.cover.put(x * ySize, row, 0, ySize);
+        in.readFully(row, 0, ySize);
+        world.infected.put(x * ySize, row, 0, ySize);
+    }
+
+    /**
+     * Hand on the proposals the owned rows made on a halo row, and
+     * withdraw them here
+     */
+    private void writeProposals(int x) throws IOException {
+        int row = x * ySize;
+        int infections = 0;
+        int claims = 0;
+        for (int y = 0; y < ySize; y++) {
+            infections += world.infectionProposed(row + y) ? 1 : 0;
+            claims += world.birthClaim(row + y) >= 0 ? 1 : 0;
+        }
+        out.writeInt(infections);
+        for (int y = 0; y < ySize; y++) {
+            if (world.infectionProposed(row + y)) {
+                out.writeInt(y);
+            }
+        }
+        out.writeInt(claims);
+        for (int y = 0; y < ySize; y++) {
+            int parent = world.birthClaim(row + y);
+            if (parent >= 0) {
+                out.writeInt(y);
+                out.writeInt(parent % ySize);
+            }
+        }
+        for (int y = 0; y < ySize; y++) {
+            world.clearProposals(row + y);
+        }
+    }
+
+    /**
+     * Merge the proposals a neighboring stripe made on an owned row, whose
+     * parents lie in a halo row
+     */
+    private void readProposals(int x, int parentRow) throws IOException {
+        int infections = in.readInt();
+        for (int i = 0; i < infections; i++) {
+            world.proposeInfection(x * ySize + in.readInt());
+        }
+        int claims = in.readInt();
+        for (int i = 0; i < claims; i++) {
+            int place = x * ySize + in.readInt();
+            int parent = parentRow * ySize + in.readInt();
+            world.claimBirth(place, parent, seed, tick);
+        }
+    }
+
+    /**
+     * Write the statistics of every owned row, then the births, deaths and
+     * infections of the stripe so far
+     */
+    private void writeStatistics() throws IOException {
+        for (int x = 1; x <= rows; x++) {
+            writeRowStatistics(x);
+        }
+        out.writeLong(world.births);
+        out.writeLong(world.deaths);
+        out.writeLong(world.infections);
+    }
+
+    private void writeRowStatistics(int x) throws IOException {
+        int healthy = world.rowStatistics(x, population, infectedPopulation,
+                temperatureSum);
+        for (int c = 0; c < world.covers; c++) {
+            out.writeInt(population[c]);
+            out.writeInt(infectedPopulation[c]);
+            out.writeDouble(temperatureSum[c]);
+        }
+        out.writeInt(healthy);
+    }
+
+    /**
+     * Infect the healthy daisy of a given rank within a row
+     * @return the cover code of the daisy
+     */
+    private byte infect(int x, int rank) throws IOException {
+        for (int cell = x * ySize; cell < (x + 1) * ySize; cell++) {
+            if (world.cover.get(cell) != World.EMPTY && !world.infected.is(cell)
+                    && rank-- == 0) {
+                world.setInfected(cell, true);
+                return world.cover.get(cell);
+            }
+        }
+        throw new IOException("Row " + x + " has fewer healthy daisies");
+    }
+}
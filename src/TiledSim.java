@@ -0,0 +1,634 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * TiledSim runs a simulation whose world is split into stripes of rows,
+ * each owned by a {@link TileWorker} process, so that the grid is spread
+ * over several heaps. It coordinates the workers over sockets on the
+ * loopback interface and keeps only the statistics of every row, from
+ * which it reports the same records as {@link Sim}.
+ * <br><br>
+ * Every tick the workers heat their rows, the coordinator hands every
+ * worker the edge rows of its neighbors as halo rows, the workers diffuse
+ * and run the synchronous demography, and hand back the infections and
+ * births their daisies propose on the halo rows, which the coordinator
+ * passes on to the owners. The draws of the synchronous demography depend
+ * on the cell only, the statistics are added up row by row in order and
+ * the random infection is drawn by the coordinator, so a tiled world gives
+ * exactly the records of one process for the same seed.
+ * <br><br>
+ * The whole world is never held here. The initial seeding draws from one
+ * stream over the whole grid, so this process draws it as {@link Sim} does
+ * on a {@link CellIndex} of the bare cells, one int a cell while seeding,
+ * and sends every daisy placed and the age drawn for it to the worker
+ * owning its cell. A checkpoint is read stripe by stripe from the mapped
+ * file and streamed to the workers, and a clone of a simulation sends the
+ * stripes of its world.
+ * The workers run on the java executable and class path of this process,
+ * with its heap, garbage collector and module options but no agents,
+ * flight recordings or JMX ports, see {@link #workerOptions(List)}.
+ */
+public class TiledSim extends AbstractSim {
+
+    // the JVM options passed on to the workers, see workerOptions
+    private static final List<String> WORKER_OPTION_PREFIXES = List.of(
+            "-Xms", "-Xmx", "-Xss", "-XX:+Use", "-XX:-Use",
+            "-XX:MaxDirectMemorySize", "-XX:MaxRAMPercentage",
+            "--add-modules", "--add-opens", "--add-exports", "--add-reads",
+            "--enable-preview", "-ea", "-da", "-enableassertions",
+            "-disableassertions");
+    private static final List<String> WORKER_OPTIONS_WITH_VALUE = List.of(
+            "--add-modules", "--add-opens", "--add-exports", "--add-reads");
+
+    private final int tiles;
+    private final int xSize;
+    private final int ySize;
+    // the first row of every stripe, followed by X_SIZE
+    private final int[] bounds;
+    private final List<Process> processes = new ArrayList<>();
+    private final Socket[] sockets;
+    private final DataInputStream[] in;
+    private final DataOutputStream[] out;
+
+    // the first and last row of every stripe, relayed as halo rows
+    private final byte[][] firstRow;
+    private final byte[][] lastRow;
+    // the proposals of every stripe on its halo rows above and below
+    private final byte[][] proposalsAbove;
+    private final byte[][] proposalsBelow;
+
+    // statistics of every row by cover code, and their totals, as World
+    // keeps them
+    private final int covers;
+    private final int[] rowPopulation;
+    private final int[] rowInfectedPopulation;
+    private final double[] rowTemperatureSum;
+    private final int[] rowHealthy;
+    private final int[] population;
+    private final int[] infectedPopulation;
+    private final double[] temperatureSum;
+    // the births, deaths and infections in the workers and by the random
+    // infection
+    private long births;
+    private long deaths;
+    private long infections;
+    private long randomInfections;
+
+    /**
+     * Make a tiled simulation, whose workers are started when it is set up,
+     * restored or cloned into
+     * @param params the configuration, with TILES worker processes
+     * @param output the pipeline the record of every tick is published to
+     */
+    public TiledSim(Params params, OutputPipeline output) {
+        super(params, output);
+        tiles = params.TILES;
+        xSize = params.X_SIZE;
+        ySize = params.Y_SIZE;
+        covers = params.SPECIES.length + 1;
+        bounds = new int[tiles + 1];
+        for (int i = 0; i <= tiles; i++) {
+            bounds[i] = (int) ((long) xSize * i / tiles);
+        }
+        rowPopulation = new int[xSize * covers];
+        rowInfectedPopulation = new int[xSize * covers];
+        rowTemperatureSum = new double[xSize * covers];
+        rowHealthy = new int[xSize];
+        population = new int[covers];
+        infectedPopulation = new int[covers];
+        temperatureSum = new double[covers];
+
+        int edge = ySize * (Double.BYTES + 2);
+        firstRow = new byte[tiles][edge];
+        lastRow = new byte[tiles][edge];
+        proposalsAbove = new byte[tiles][];
+        proposalsBelow = new byte[tiles][];
+        sockets = new Socket[tiles];
+        in = new DataInputStream[tiles];
+        out = new DataOutputStream[tiles];
+    }
+
+    /**
+     * Seed the world as {@link Sim#setup()} does, drawing from the same
+     * streams, and send every worker the daisies of its stripe
+     *
+     * @throws IOException if a worker cannot be started
+     */
+    @Override
+    public void setup() throws IOException {
+        // the stream of the sequential demography of the world goes unused,
+        // as the stripes run the synchronous one
+        seedStreams();
+        start(this::sendSeeding);
+    }
+
+    /**
+     * Restore a tiled simulation from a checkpoint, streaming every stripe
+     * from the file to its worker
+     *
+     * @param params the configuration, whose world must have the size of
+     *               the saved one
+     * @param output the pipeline the record of every tick is published to
+     * @param file the checkpoint file
+     * @return the restored simulation
+     * @throws IOException if the checkpoint cannot be read or a worker
+     *                     cannot be started
+     */
+    public static TiledSim restore(Params params, OutputPipeline output,
+                                   File file) throws IOException {
+        TiledSim sim = new TiledSim(params, output);
+        try (FileChannel channel = FileChannel.open(file.toPath())) {
+            MappedByteBuffer buffer = Checkpoint.map(channel);
+            Checkpoint.readHeader(buffer, file, sim, params);
+            int start = buffer.position();
+            sim.start(() -> sim.sendCheckpoint(buffer, start, file));
+        }
+        return sim;
+    }
+
+    /**
+     * Clone the current state of a simulation into a tiled one, sending
+     * every worker its stripe of the world, which is only read
+     *
+     * @param template the simulation to clone, with a world
+     * @param params the configuration of the clone, of the same size
+     * @param output the pipeline the clone publishes its records to
+     * @return the clone
+     * @throws IOException if a worker cannot be started
+     */
+    static TiledSim split(Sim template, Params params, OutputPipeline output)
+                                                            throws IOException {
+        TiledSim sim = new TiledSim(params, output);
+        sim.continueFrom(template);
+        sim.start(() -> sim.sendWorld(template.world));
+        return sim;
+    }
+
+    /**
+     * Sends the initial state of every stripe to its worker
+     */
+    private interface Initializer {
+        void send() throws IOException;
+    }
+
+    /**
+     * Start the workers, send them their initial state and collect the
+     * statistics of their rows, stopping them if anything fails
+     */
+    private void start(Initializer initializer) throws IOException {
+        try {
+            startWorkers();
+            initializer.send();
+            for (int i = 0; i < tiles; i++) {
+                out[i].flush();
+            }
+            collectStatistics();
+        } catch (IOException | RuntimeException e) {
+            stopWorkers();
+            throw e;
+        }
+    }
+
+    /**
+     * Start a worker process per stripe and send it the configuration and
+     * the rows it owns
+     */
+    private void startWorkers() throws IOException {
+        try (ServerSocket server = new ServerSocket(0, tiles,
+                InetAddress.getLoopbackAddress())) {
+            server.setSoTimeout(60_000);
+            List<String> command = new ArrayList<>();
+            command.add(ProcessHandle.current().info().command()
+                    .orElse("java"));
+            command.addAll(workerOptions(
+                    ManagementFactory.getRuntimeMXBean().getInputArguments()));
+            command.add("-cp");
+            command.add(System.getProperty("java.class.path"));
+            command.add("TileWorker");
+            command.add(String.valueOf(server.getLocalPort()));
+            for (int i = 0; i < tiles; i++) {
+                processes.add(new ProcessBuilder(command)
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start());
+            }
+
+            ByteArrayOutputStream text = new ByteArrayOutputStream();
+            params.properties().store(text, null);
+            for (int i = 0; i < tiles; i++) {
+                sockets[i] = server.accept();
+                sockets[i].setTcpNoDelay(true);
+                in[i] = new DataInputStream(new BufferedInputStream(
+                        sockets[i].getInputStream(), 1 << 16));
+                out[i] = new DataOutputStream(new BufferedOutputStream(
+                        sockets[i].getOutputStream(), 1 << 16));
+
+                out[i].writeInt(text.size());
+                text.writeTo(out[i]);
+                out[i].writeLong(seed);
+                out[i].writeInt(bounds[i]);
+                out[i].writeInt(bounds[i + 1]);
+            }
+        }
+    }
+
+    /**
+     * Pick the JVM options of this process the workers are started with:
+     * the heap, stack, garbage collector, module, preview and assertion
+     * options. Agents, flight recordings, JMX ports and the like are left
+     * out, as every worker would open the same port or file.
+     * @param options the options of this process
+     * @return the options of a worker
+     */
+    static List<String> workerOptions(List<String> options) {
+        List<String> allowed = new ArrayList<>();
+        for (int i = 0; i < options.size(); i++) {
+            String option = options.get(i);
+            if (WORKER_OPTIONS_WITH_VALUE.contains(option)
+                    && i + 1 < options.size()) {
+                allowed.add(option);
+                allowed.add(options.get(++i));
+                continue;
+            }
+            for (String prefix : WORKER_OPTION_PREFIXES) {
+                if (option.startsWith(prefix)) {
+                    allowed.add(option);
+                    break;
+                }
+            }
+        }
+        return allowed;
+    }
+
+    /**
+     * Draw the daisies of every species on the bare cells in turn, from one
+     * index of the cells, then the age of every daisy in cell id order, as
+     * {@link Sim#seedRandomly} and {@link Sim#setDaisiesWithRandomAge()} do,
+     * and send each to the worker owning its cell
+     */
+    private void sendSeeding() throws IOException {
+        int cells = xSize * ySize;
+        CellIndex bare = new CellIndex(cells);
+        for (int i = 0; i < tiles; i++) {
+            out[i].writeByte(TileWorker.PLACEMENTS);
+        }
+        for (Species species : params.SPECIES) {
+            int size = (int) Math.round(species.getStartPercentage() * cells);
+            for (int n = 0; n < size; n++) {
+                int cell = bare.take(setupRandom.nextInt(bare.count()));
+                int i = stripeOf(cell / ySize);
+                out[i].writeInt(cell - bounds[i] * ySize);
+                out[i].writeByte(species.getIndex());
+            }
+        }
+        for (int i = 0; i < tiles; i++) {
+            out[i].writeInt(-1);
+            // the stripes follow each other in cell id order
+            for (int cell = bounds[i] * ySize; cell < bounds[i + 1] * ySize; cell++) {
+                if (!bare.contains(cell)) {
+                    out[i].writeByte(setupRandom.nextInt(Params.MAX_AGE));
+                }
+            }
+        }
+    }
+
+    /**
+     * Send every worker the cells of its stripe from a mapped checkpoint
+     * @param buffer the checkpoint
+     * @param start the position of the first state byte
+     * @param file the checkpoint file, for the messages
+     */
+    private void sendCheckpoint(MappedByteBuffer buffer, int start, File file)
+                                                            throws IOException {
+        int cells = xSize * ySize;
+        byte[] chunk = new byte[Math.min(cells, 1 << 16)];
+        for (int i = 0; i < tiles; i++) {
+            int from = bounds[i] * ySize;
+            int to = bounds[i + 1] * ySize;
+            out[i].writeByte(TileWorker.CELLS);
+            for (int cell = from; cell < to; cell += chunk.length) {
+                int length = Math.min(chunk.length, to - cell);
+                buffer.get(start + cell, chunk, 0, length);
+                for (int c = 0; c < length; c++) {
+                    if ((chunk[c] & 0x7F) >= covers) {
+                        throw new IOException(file + " has an unknown cover "
+                                + (chunk[c] & 0x7F));
+                    }
+                }
+                out[i].write(chunk, 0, length);
+            }
+            for (int cell = from; cell < to; cell += chunk.length) {
+                int length = Math.min(chunk.length, to - cell);
+                buffer.get(start + cells + cell, chunk, 0, length);
+                out[i].write(chunk, 0, length);
+            }
+            int temperatures = start + 2 * cells;
+            for (int cell = from; cell < to; cell++) {
+                out[i].writeDouble(buffer.getDouble(temperatures
+                        + cell * Double.BYTES));
+            }
+        }
+    }
+
+    /**
+     * Send every worker the cells of its stripe of a world
+     */
+    private void sendWorld(World world) throws IOException {
+        for (int i = 0; i < tiles; i++) {
+            int from = bounds[i] * ySize;
+            int to = bounds[i + 1] * ySize;
+            out[i].writeByte(TileWorker.CELLS);
+            for (int cell = from; cell < to; cell++) {
+                out[i].writeByte(world.cover.get(cell)
+                        | (world.infected.is(cell) ? 0x80 : 0));
+            }
+            for (int cell = from; cell < to; cell++) {
+                out[i].writeByte(world.age.get(cell));
+            }
+            for (int cell = from; cell < to; cell++) {
+                out[i].writeDouble(world.temperature.get(cell));
+            }
+        }
+    }
+
+    /**
+     * @return the stripe owning a row
+     */
+    private int stripeOf(int x) {
+        int i = 0;
+        while (x >= bounds[i + 1]) {
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * Run the phases of the tick on the workers and collect the statistics
+     * of their rows
+     */
+    @Override
+    void advance() throws IOException {
+        for (int i = 0; i < tiles; i++) {
+            out[i].writeByte(TileWorker.HEAT);
+            out[i].writeDouble(solarLuminosity);
+            out[i].flush();
+        }
+        for (int i = 0; i < tiles; i++) {
+            in[i].readFully(firstRow[i]);
+            in[i].readFully(lastRow[i]);
+        }
+        lap(TickPhase.TEMPERATURE);
+
+        for (int i = 0; i < tiles; i++) {
+            out[i].writeByte(TileWorker.DEMOGRAPHY);
+            out[i].writeInt(tick);
+            int above = stripeAbove(i);
+            out[i].writeBoolean(above >= 0);
+            if (above >= 0) {
+                out[i].write(lastRow[above]);
+            }
+            int below = stripeBelow(i);
+            out[i].writeBoolean(below >= 0);
+            if (below >= 0) {
+                out[i].write(firstRow[below]);
+            }
+            out[i].flush();
+        }
+        for (int i = 0; i < tiles; i++) {
+            proposalsAbove[i] = readProposals(in[i]);
+            proposalsBelow[i] = readProposals(in[i]);
+        }
+        // the workers diffuse and propose in the same exchange
+        lap(TickPhase.DIFFUSION);
+
+        for (int i = 0; i < tiles; i++) {
+            out[i].writeByte(TileWorker.APPLY);
+            int above = stripeAbove(i);
+            writeProposals(out[i], above >= 0 ? proposalsBelow[above] : null);
+            int below = stripeBelow(i);
+            writeProposals(out[i], below >= 0 ? proposalsAbove[below] : null);
+            out[i].flush();
+        }
+        collectStatistics();
+        lap(TickPhase.DEMOGRAPHY);
+    }
+
+    /**
+     * Read the statistics of the rows of every worker and the births,
+     * deaths and infections of its stripe, and add them up
+     */
+    private void collectStatistics() throws IOException {
+        births = 0;
+        deaths = 0;
+        infections = randomInfections;
+        for (int i = 0; i < tiles; i++) {
+            for (int x = bounds[i]; x < bounds[i + 1]; x++) {
+                for (int c = 0; c < covers; c++) {
+                    rowPopulation[x * covers + c] = in[i].readInt();
+                    rowInfectedPopulation[x * covers + c] = in[i].readInt();
+                    rowTemperatureSum[x * covers + c] = in[i].readDouble();
+                }
+                rowHealthy[x] = in[i].readInt();
+            }
+            births += in[i].readLong();
+            deaths += in[i].readLong();
+            infections += in[i].readLong();
+        }
+
+        for (int c = 0; c < covers; c++) {
+            int count = 0;
+            int infectedCount = 0;
+            double sum = 0;
+            for (int x = 0; x < xSize; x++) {
+                count += rowPopulation[x * covers + c];
+                infectedCount += rowInfectedPopulation[x * covers + c];
+                sum += rowTemperatureSum[x * covers + c];
+            }
+            population[c] = count;
+            infectedPopulation[c] = infectedCount;
+            temperatureSum[c] = sum;
+        }
+    }
+
+    private int stripeAbove(int i) {
+        if (i > 0) {
+            return i - 1;
+        }
+        return params.TORUS ? tiles - 1 : -1;
+    }
+
+    private int stripeBelow(int i) {
+        if (i < tiles - 1) {
+            return i + 1;
+        }
+        return params.TORUS ? 0 : -1;
+    }
+
+    /**
+     * Read the proposals of a worker on one halo row as they were sent
+     */
+    private byte[] readProposals(DataInputStream in) throws IOException {
+        int infections = in.readInt();
+        byte[] infected = new byte[infections * Integer.BYTES];
+        in.readFully(infected);
+        int claims = in.readInt();
+        byte[] claimed = new byte[claims * 2 * Integer.BYTES];
+        in.readFully(claimed);
+
+        ByteArrayOutputStream proposals = new ByteArrayOutputStream(
+                2 * Integer.BYTES + infected.length + claimed.length);
+        DataOutputStream data = new DataOutputStream(proposals);
+        data.writeInt(infections);
+        data.write(infected);
+        data.writeInt(claims);
+        data.write(claimed);
+        return proposals.toByteArray();
+    }
+
+    private static void writeProposals(DataOutputStream out, byte[] proposals)
+                                                            throws IOException {
+        if (proposals == null) {
+            out.writeInt(0);
+            out.writeInt(0);
+        } else {
+            out.write(proposals);
+        }
+    }
+
+    /**
+     * [Extension]:
+     * Randomly infect a healthy daisy, found by the number of healthy
+     * daisies of every row and infected by the worker owning its row.
+     */
+    @Override
+    public void infectRandomly() throws IOException {
+        int healthy = calculateGlobalPopulation();
+        for (int c = 1; c < covers; c++) {
+            healthy -= infectedPopulation[c];
+        }
+        if (healthy == 0) {
+            return;
+        }
+
+        int rank = infectionRandom.nextInt(healthy);
+        int x = 0;
+        while (rank >= rowHealthy[x]) {
+            rank -= rowHealthy[x++];
+        }
+        int i = stripeOf(x);
+        out[i].writeByte(TileWorker.INFECT);
+        out[i].writeInt(x - bounds[i]);
+        out[i].writeInt(rank);
+        out[i].flush();
+        byte cover = in[i].readByte();
+        infectedPopulation[cover]++;
+        rowInfectedPopulation[x * covers + cover]++;
+        rowHealthy[x]--;
+        randomInfections++;
+        infections++;
+    }
+
+    @Override
+    public long countBirths() {
+        return births;
+    }
+
+    @Override
+    public long countDeaths() {
+        return deaths;
+    }
+
+    @Override
+    public long countInfections() {
+        return infections;
+    }
+
+    @Override
+    public int calculateGlobalPopulation() {
+        return xSize * ySize - population[World.EMPTY];
+    }
+
+    @Override
+    public int calculatePopulation(Species species) {
+        return population[World.coverOf(species)];
+    }
+
+    @Override
+    public int calculateInfectedPopulation(Species species) {
+        return infectedPopulation[World.coverOf(species)];
+    }
+
+    @Override
+    public double calculateGlobalTemperature() {
+        double totalTemperature = 0;
+        for (int c = 0; c < covers; c++) {
+            totalTemperature += temperatureSum[c];
+        }
+        return totalTemperature / (xSize * ySize);
+    }
+
+    @Override
+    public double calculateLocalTemperatureAvg(Species species) {
+        byte cover = World.coverOf(species);
+        return localTemperatureAvg(population[cover], temperatureSum[cover]);
+    }
+
+    /**
+     * Stop the workers, even if the rest cannot be finished
+     *
+     * @throws IOException if the instrumentation cannot be closed
+     */
+    @Override
+    public void finish() throws IOException {
+        try {
+            super.finish();
+        } finally {
+            stopWorkers();
+        }
+    }
+
+    private void stopWorkers() {
+        for (int i = 0; i < tiles; i++) {
+            if (sockets[i] == null) {
+                continue;
+            }
+            try {
+                out[i].writeByte(TileWorker.STOP);
+                out[i].flush();
+            } catch (IOException e) {
+                // the worker is gone already
+            }
+            try {
+                sockets[i].close();
+            } catch (IOException e) {
+                // closed already
+            }
+            sockets[i] = null;
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(10, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+        processes.clear();
+    }
+}
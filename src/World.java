@@ -0,0 +1,1205 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+
+/**
+ * World holds the state of every patch in flat primitive arrays indexed by
+ * cell id, so that a tick walks contiguous memory instead of an object graph.
+ * <br><br>
+ * A cell id is {@code x * Y_SIZE + y}, which keeps the order in which the
+ * patches have always been visited. {@link Patch} and {@link Daisy} are thin
+ * views over a cell of this state.
+ */
+public class World {
+
+    /** Cover code of a patch without a daisy */
+    public static final byte EMPTY = 0;
+
+    /** Maximum number of neighbors of a cell */
+    public static final int MAX_NEIGHBORS = 8;
+
+    // fate of a daisy decided by the synchronous demography
+    private static final byte DIES = 1;
+    private static final byte RECOVERS = 2;
+
+    // indices of the draws a daisy makes in one synchronous demographic step
+    private static final int RECOVERY_DRAW = 0;
+    private static final int DEATH_DRAW = 1;
+    private static final int SPROUT_DRAW = 2;
+    private static final int SPROUT_PLACE_DRAW = 3;
+    private static final int BIRTH_PRIORITY_DRAW = 4;
+    private static final int INFECTION_DRAW = 5;
+
+    private static final VarHandle CLAIM =
+            MethodHandles.arrayElementVarHandle(int[].class);
+
+    // the row and column offsets of the eight neighbor directions, in the
+    // order neighborsOf lists the neighbors; the opposite of direction d is
+    // direction 7 - d
+    private static final int[] DX = {-1, -1, -1, 0, 0, 1, 1, 1};
+    private static final int[] DY = {-1, 0, 1, -1, 1, -1, 0, 1};
+    // the bits of the bare neighbors of a cell given by the column to its
+    // left, its own column and the column to its right, by whether the
+    // cells of the column above (bit 0), on (bit 1) and below (bit 2) the
+    // row of the cell are bare
+    private static final byte[] LEFT_BARE = columnBits(0, 3, 5);
+    private static final byte[] MIDDLE_BARE = columnBits(1, -1, 6);
+    private static final byte[] RIGHT_BARE = columnBits(2, 4, 7);
+
+    final Params params;
+    final int xSize;
+    final int ySize;
+    final int size;
+    // whether the edges wrap around so that the world is a torus
+    final boolean torus;
+    // for a stripe of a tiled world, the row of the whole world its row 0
+    // stands for, and the number of rows of the whole world; see tile()
+    final boolean tile;
+    final int firstRow;
+    final int globalRows;
+
+    // the state of the cells, on the heap or in the file of a world map
+    DoublePlane temperature;
+    // scratch buffer the diffusion writes into before the two are swapped
+    DoublePlane nextTemperature;
+    // 0 for bare ground, otherwise the index of the daisy species plus one
+    final BytePlane cover;
+    final BytePlane age;
+    // 1 if the daisy is infected, otherwise 0
+    final BytePlane infected;
+
+    // the solar luminosity of the current tick, set by setSolarLuminosity
+    private double solarLuminosity;
+
+    // number of cover codes, bare ground included
+    final int covers;
+    // the albedo of every cover code
+    private final double[] albedo;
+    // the local heating of every cover code at the current solar luminosity,
+    // so that the cells of a tick look it up instead of taking a logarithm
+    private final double[] heating;
+
+    // statistics by cover code, kept up to date as daisies are born, die,
+    // get infected or recover; the temperature sums are recomputed by the
+    // diffusion, which finishes the temperature of every cell for the tick
+    final int[] population;
+    final int[] infectedPopulation;
+    final double[] temperatureSum;
+
+    // partial statistics of each row, indexed by row * covers + cover code,
+    // filled by the row-parallel passes and summed up in row order so that
+    // the totals do not depend on how the rows were split
+    private final int[] rowPopulation;
+    private final int[] rowInfectedPopulation;
+    private final double[] rowTemperatureSum;
+    // the number of healthy daisies of each row, an index to find the
+    // healthy daisy of a given rank without scanning the grid
+    private final int[] rowHealthy;
+
+    // the daisies born, died and infected by the demography since the
+    // world was made, and the counts of each row of the last synchronous
+    // step
+    long births;
+    long deaths;
+    long infections;
+    private final int[] rowBirths;
+    private final int[] rowDeaths;
+    private final int[] rowInfections;
+
+    // runs the inner loops of the temperature phases
+    final TemperatureKernel kernel;
+
+    private final int[] neighborScratch = new int[MAX_NEIGHBORS];
+    // the bare neighbors of every cell, bit d set if the neighbor in
+    // direction d exists and has no daisy, so that a sprout picks its place
+    // without listing the neighbors; kept for the sequential demography
+    // only, null for a stripe of a tiled world or once the synchronous
+    // demography is enabled
+    private byte[] bareNeighbors;
+    // draws of the sequential demography
+    final Rng random;
+
+    // state of the synchronous demography, allocated on first use
+    private byte[] fate;
+    private boolean[] infectionProposed;
+    // the cell id plus one of the daisy that won the right to sprout here
+    private int[] birthClaim;
+    // the neighbors of a cell, for the range of rows starting at each row
+    private int[][] rowNeighbors;
+
+    /**
+     * The constructor of World
+     * @param params the configuration of the run, giving the size of the
+     *               world and whether its edges wrap around
+     * @param random the random stream of the sequential demography
+     */
+    public World(Params params, Rng random) {
+        this(params, random, null);
+    }
+
+    /**
+     * Make a world whose cells live in the file of a world map, so that
+     * other processes map the state the simulation works on
+     * @param params the configuration of the run
+     * @param random the random stream of the sequential demography
+     * @param map the world map of the size of the world, or null to keep
+     *            the cells on the heap
+     */
+    World(Params params, Rng random, WorldMap map) {
+        this(params, random, params.X_SIZE, false, 0, map);
+    }
+
+    /**
+     * Make the stripe of rows one worker of a tiled world owns. The stripe
+     * has a halo row above and below the owned rows, which hold copies of
+     * the neighboring rows of the whole world, so the owned rows are 1 to
+     * toRow - fromRow inclusive. Halo rows beyond the bounded edges of the
+     * world are never looked at.
+     * <br><br>
+     * The draws of the synchronous demography are made with the cell ids
+     * of the whole world, so the stripes of a tiled world draw exactly what
+     * the whole world draws.
+     * @param params the configuration of the whole world
+     * @param fromRow the first row owned, inclusive
+     * @param toRow the last row owned, exclusive
+     * @return the stripe, with bare cells
+     */
+    static World tile(Params params, int fromRow, int toRow) {
+        return new World(params, new Rng(params.SEED), toRow - fromRow + 2,
+                true, fromRow - 1, null);
+    }
+
+    private World(Params params, Rng random, int rows, boolean tile,
+                  int firstRow, WorldMap map) {
+        this.params = params;
+        this.xSize = rows;
+        this.ySize = params.Y_SIZE;
+        this.size = xSize * ySize;
+        this.torus = params.TORUS;
+        this.tile = tile;
+        this.firstRow = firstRow;
+        this.globalRows = params.X_SIZE;
+        this.random = random;
+        this.covers = params.SPECIES.length + 1;
+        this.albedo = new double[covers];
+        this.albedo[EMPTY] = params.ALBEDO_OF_SURFACE;
+        for (Species species : params.SPECIES) {
+            this.albedo[coverOf(species)] = species.getAlbedo();
+        }
+        this.heating = new double[covers];
+        this.kernel = TemperatureKernel.of(params.KERNEL);
+        this.population = new int[covers];
+        this.infectedPopulation = new int[covers];
+        this.temperatureSum = new double[covers];
+        if (map == null) {
+            this.temperature = DoublePlane.onHeap(size);
+            this.nextTemperature = DoublePlane.onHeap(size);
+            this.cover = BytePlane.onHeap(size);
+            this.age = BytePlane.onHeap(size);
+            this.infected = BytePlane.onHeap(size);
+        } else {
+            this.temperature = map.temperature(0);
+            this.nextTemperature = map.temperature(1);
+            this.cover = map.cover();
+            this.age = map.age();
+            this.infected = map.infected();
+        }
+        this.rowPopulation = new int[xSize * covers];
+        this.rowInfectedPopulation = new int[xSize * covers];
+        this.rowTemperatureSum = new double[xSize * covers];
+        this.rowHealthy = new int[xSize];
+        this.rowBirths = new int[xSize];
+        this.rowDeaths = new int[xSize];
+        this.rowInfections = new int[xSize];
+        population[EMPTY] = size;
+        setSolarLuminosity(params.SOLAR_LUMINOSITY);
+        if (!tile) {
+            bareNeighbors = new byte[size];
+            countBareNeighbors();
+        }
+    }
+
+    /**
+     * Resolve a row index that may lie one step outside the world
+     * @param x the row index, between -1 and X_SIZE inclusive
+     * @return the row index after wrapping around, or -1 if there is no
+     * such row because the edges are bounded
+     */
+    int neighborRow(int x) {
+        if (tile) {
+            // the halo rows stand for the neighboring rows, if there are any
+            int row = firstRow + x;
+            return torus || (row >= 0 && row < globalRows) ? x : -1;
+        }
+        if (x >= 0 && x < xSize) {
+            return x;
+        }
+        if (!torus) {
+            return -1;
+        }
+        return x < 0 ? x + xSize : x - xSize;
+    }
+
+    /**
+     * Resolve a column index that may lie one step outside the world
+     * @param y the column index, between -1 and Y_SIZE inclusive
+     * @return the column index after wrapping around, or -1 if there is no
+     * such column because the edges are bounded
+     */
+    int neighborColumn(int y) {
+        if (y >= 0 && y < ySize) {
+            return y;
+        }
+        if (!torus) {
+            return -1;
+        }
+        return y < 0 ? y + ySize : y - ySize;
+    }
+
+    /**
+     * Find the cells within 1 distance of a cell by index arithmetic
+     * @param cell the cell id
+     * @param out the array of at least 8 elements to receive the neighbors
+     * @return the number of neighbors written into out
+     */
+    public int neighborsOf(int cell, int[] out) {
+        int x = xOf(cell);
+        int y = yOf(cell);
+        int count = 0;
+        for (int dx = -1; dx <= 1; dx++) {
+            int nx = neighborRow(x + dx);
+            if (nx < 0) {
+                continue;
+            }
+            for (int dy = -1; dy <= 1; dy++) {
+                int ny = neighborColumn(y + dy);
+                if (ny < 0 || (dx == 0 && dy == 0)) {
+                    continue;
+                }
+                out[count++] = nx * ySize + ny;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Find the neighbor of a cell in a direction
+     * @param x the row of the cell
+     * @param y the column of the cell
+     * @param direction the direction, between 0 and 7 in the order of
+     *                  {@link #neighborsOf(int, int[])}
+     * @return the cell id of the neighbor, or -1 if there is none
+     */
+    private int neighborIn(int x, int y, int direction) {
+        int nx = neighborRow(x + DX[direction]);
+        int ny = neighborColumn(y + DY[direction]);
+        return nx < 0 || ny < 0 ? -1 : nx * ySize + ny;
+    }
+
+    /**
+     * Map the bare cells of a column of three to the directions they lie in
+     * @param above the direction of the cell above the row, or -1
+     * @param on the direction of the cell on the row, or -1 for the cell
+     *           itself
+     * @param below the direction of the cell below the row
+     * @return the bits of the directions, for each of the 8 columns
+     */
+    private static byte[] columnBits(int above, int on, int below) {
+        byte[] bits = new byte[8];
+        for (int column = 0; column < 8; column++) {
+            int mask = 0;
+            if ((column & 1) != 0) {
+                mask |= 1 << above;
+            }
+            if ((column & 2) != 0 && on >= 0) {
+                mask |= 1 << on;
+            }
+            if ((column & 4) != 0) {
+                mask |= 1 << below;
+            }
+            bits[column] = (byte) mask;
+        }
+        return bits;
+    }
+
+    /**
+     * Work out the bare neighbors of every cell from scratch, row by row.
+     * The bare cells of each column of the row and the rows above and below
+     * are worked out once, then the mask of every cell is put together from
+     * the columns to its left, its own and to its right.
+     */
+    private void countBareNeighbors() {
+        byte[] columns = new byte[ySize];
+        for (int x = 0; x < xSize; x++) {
+            int above = neighborRow(x - 1);
+            int below = neighborRow(x + 1);
+            for (int y = 0; y < ySize; y++) {
+                columns[y] = (byte) (isBare(above, y) | isBare(x, y) << 1
+                        | isBare(below, y) << 2);
+            }
+            int row = x * ySize;
+            for (int y = 0; y < ySize; y++) {
+                // only the edge columns may wrap around
+                int left = y > 0 ? y - 1 : neighborColumn(-1);
+                int right = y < ySize - 1 ? y + 1 : neighborColumn(ySize);
+                bareNeighbors[row + y] = (byte) (
+                        (left < 0 ? 0 : LEFT_BARE[columns[left]])
+                        | MIDDLE_BARE[columns[y]]
+                        | (right < 0 ? 0 : RIGHT_BARE[columns[right]]));
+            }
+        }
+    }
+
+    /**
+     * @param x the row, or -1 if there is none
+     * @param y the column
+     * @return 1 if the cell exists and has no daisy, otherwise 0
+     */
+    private int isBare(int x, int y) {
+        // without a branch on the cover, which is as good as random on a
+        // seeded world; a cover code is never negative
+        return x < 0 ? 0 : (cover.get(x * ySize + y) - 1) >>> 31;
+    }
+
+    /**
+     * Get the id a cell has in the whole world, which differs from its id
+     * in a stripe of a tiled world
+     * @param cell the cell id
+     * @return the cell id in the whole world
+     */
+    int globalCell(int cell) {
+        if (!tile) {
+            return cell;
+        }
+        int row = Math.floorMod(firstRow + cell / ySize, globalRows);
+        return row * ySize + cell % ySize;
+    }
+
+    public int cellOf(int x, int y) {
+        return x * ySize + y;
+    }
+
+    public int xOf(int cell) {
+        return cell / ySize;
+    }
+
+    public int yOf(int cell) {
+        return cell % ySize;
+    }
+
+    /**
+     * Convert a daisy species into its cover code
+     * @param species the species of daisy
+     * @return the cover code stored in the world
+     */
+    public static byte coverOf(Species species) {
+        return (byte) (species.getIndex() + 1);
+    }
+
+    /**
+     * Convert a cover code back into a daisy species
+     * @param cover the cover code of a cell
+     * @return the species of daisy, or null for bare ground
+     */
+    public Species speciesOf(byte cover) {
+        return cover == EMPTY ? null : params.SPECIES[cover - 1];
+    }
+
+    /**
+     * Get the albedo of a cover code
+     * @param cover the cover code of a cell
+     * @return the albedo of the surface or of the daisy on it
+     */
+    public double albedoOf(byte cover) {
+        return albedo[cover];
+    }
+
+    public boolean hasDaisy(int cell) {
+        return cover.get(cell) != EMPTY;
+    }
+
+    /**
+     * Place a healthy daisy of chosen species and age on a cell
+     * @param cell the cell id
+     * @param species the species of daisy
+     * @param age the age of daisy
+     */
+    public void placeDaisy(int cell, Species species, int age) {
+        setInfected(cell, false);
+        setCover(cell, coverOf(species));
+        this.age.set(cell, (byte) age);
+    }
+
+    /**
+     * Detach the daisy from a cell as its death
+     * @param cell the cell id
+     */
+    public void removeDaisy(int cell) {
+        setInfected(cell, false);
+        setCover(cell, EMPTY);
+        age.set(cell, (byte) 0);
+    }
+
+    /**
+     * Change the cover of a cell and move it between the statistics
+     * @param cell the cell id
+     * @param newCover the new cover code
+     */
+    private void setCover(int cell, byte newCover) {
+        byte oldCover = cover.get(cell);
+        if (oldCover == newCover) {
+            return;
+        }
+        population[oldCover]--;
+        population[newCover]++;
+        temperatureSum[oldCover] -= temperature.get(cell);
+        temperatureSum[newCover] += temperature.get(cell);
+        if (infected.is(cell)) {
+            infectedPopulation[oldCover]--;
+            infectedPopulation[newCover]++;
+        } else {
+            rowHealthy[cell / ySize] += (newCover != EMPTY ? 1 : 0)
+                    - (oldCover != EMPTY ? 1 : 0);
+        }
+        cover.set(cell, newCover);
+        if (bareNeighbors != null && (oldCover == EMPTY) != (newCover == EMPTY)) {
+            // the cell is the neighbor in the opposite direction of each
+            // of its neighbors
+            int x = cell / ySize;
+            int y = cell % ySize;
+            for (int d = 0; d < MAX_NEIGHBORS; d++) {
+                int neighbor = neighborIn(x, y, d);
+                if (neighbor >= 0) {
+                    bareNeighbors[neighbor] ^= (byte) (1 << (MAX_NEIGHBORS - 1 - d));
+                }
+            }
+        }
+    }
+
+    /**
+     * Copy the state of every cell from a world of the same size
+     * @param other the world to copy
+     */
+    void copyStateFrom(World other) {
+        if (other.xSize != xSize || other.ySize != ySize) {
+            throw new IllegalArgumentException("Cannot copy a " + other.xSize
+                    + "x" + other.ySize + " world into a " + xSize + "x"
+                    + ySize + " world");
+        }
+        if (other.covers != covers) {
+            throw new IllegalArgumentException("Cannot copy a world of "
+                    + (other.covers - 1) + " species into a world of "
+                    + (covers - 1) + " species");
+        }
+        temperature.copyFrom(other.temperature);
+        cover.copyFrom(other.cover);
+        age.copyFrom(other.age);
+        infected.copyFrom(other.infected);
+        countStatistics();
+        if (bareNeighbors != null) {
+            if (other.bareNeighbors != null) {
+                System.arraycopy(other.bareNeighbors, 0, bareNeighbors, 0, size);
+            } else {
+                countBareNeighbors();
+            }
+        }
+    }
+
+    /**
+     * Count the statistics and the bare neighbors from scratch, after the
+     * cells were set directly
+     */
+    void recountStatistics() {
+        countStatistics();
+        if (bareNeighbors != null) {
+            countBareNeighbors();
+        }
+    }
+
+    private void countStatistics() {
+        Arrays.fill(population, 0);
+        Arrays.fill(infectedPopulation, 0);
+        Arrays.fill(temperatureSum, 0);
+        for (int x = 0; x < xSize; x++) {
+            int healthy = 0;
+            for (int cell = x * ySize; cell < (x + 1) * ySize; cell++) {
+                byte code = cover.get(cell);
+                int sick = infected.get(cell);
+                population[code]++;
+                infectedPopulation[code] += sick;
+                // a healthy daisy, without a branch on the cover
+                healthy += (-code >>> 31) & (sick ^ 1);
+                temperatureSum[code] += temperature.get(cell);
+            }
+            rowHealthy[x] = healthy;
+        }
+    }
+
+    /**
+     * Infect or cure the daisy on a cell
+     * @param cell the cell id
+     * @param isInfected whether the daisy becomes infected
+     */
+    public void setInfected(int cell, boolean isInfected) {
+        if (infected.is(cell) != isInfected) {
+            infected.set(cell, isInfected);
+            infectedPopulation[cover.get(cell)] += isInfected ? 1 : -1;
+            if (cover.get(cell) != EMPTY) {
+                rowHealthy[cell / ySize] += isInfected ? -1 : 1;
+            }
+        }
+    }
+
+    /**
+     * Find a healthy daisy by its rank in cell id order, skipping the rows
+     * by their number of healthy daisies
+     * @param rank the rank, between 0 and the number of healthy daisies
+     * @return the cell id of the daisy
+     */
+    int healthyDaisy(int rank) {
+        for (int x = 0; x < xSize; x++) {
+            if (rank >= rowHealthy[x]) {
+                rank -= rowHealthy[x];
+                continue;
+            }
+            for (int cell = x * ySize; cell < (x + 1) * ySize; cell++) {
+                if (cover.get(cell) != EMPTY && !infected.is(cell) && rank-- == 0) {
+                    return cell;
+                }
+            }
+        }
+        throw new IllegalArgumentException("There are fewer healthy daisies");
+    }
+
+    /**
+     * Calculate the temperature of every cell in a range of rows
+     * @param fromRow the first row, inclusive
+     * @param toRow the last row, exclusive
+     */
+    void calculateTemperature(int fromRow, int toRow) {
+        // the kernels run over the arrays of the planes on the heap
+        double[] values = temperature.array();
+        byte[] codes = cover.array();
+        int cell = values == null || codes == null ? fromRow * ySize
+                : kernel.heat(values, codes, heating, fromRow * ySize,
+                        toRow * ySize);
+        for (; cell < toRow * ySize; cell++) {
+            calculateTemperature(cell);
+        }
+    }
+
+    /**
+     * Calculate the temperature of a cell
+     * @param cell the cell id
+     */
+    void calculateTemperature(int cell) {
+        temperature.set(cell, (temperature.get(cell) + heating[cover.get(cell)]) / 2);
+    }
+
+    double getSolarLuminosity() {
+        return solarLuminosity;
+    }
+
+    /**
+     * Set the solar luminosity of the current tick and work out the local
+     * heating of every cover code under it, once for all cells
+     * @param solarLuminosity the solar luminosity
+     */
+    void setSolarLuminosity(double solarLuminosity) {
+        this.solarLuminosity = solarLuminosity;
+        for (int c = 0; c < covers; c++) {
+            heating[c] = localHeating(albedo[c], solarLuminosity);
+        }
+    }
+
+    /**
+     * Get the temperature a cover is heated to by the current solar
+     * luminosity
+     * @param cover the cover code
+     * @return the local heating
+     */
+    double localHeating(byte cover) {
+        return heating[cover];
+    }
+
+    /**
+     * Calculate the temperature a surface is heated to by a solar luminosity
+     * @param albedo the albedo of the surface
+     * @param solarLuminosity the solar luminosity
+     * @return the local heating
+     */
+    static double localHeating(double albedo, double solarLuminosity) {
+
+        double absorbedLuminosity =
+                (1 - albedo) * solarLuminosity;
+
+        double localHeating;
+        if (absorbedLuminosity > 0) {
+            localHeating = 72 * Math.log(absorbedLuminosity) + 80;
+        } else {
+            localHeating = 80;
+        }
+        return localHeating;
+    }
+
+    /**
+     * Calculate the threshold of the sprouting possibility of a daisy, which
+     * sprouts if a uniform draw from 0 to 1 is below it. The threshold is
+     * determined by the temperature: too low or too high gives a threshold
+     * below 0, 22.5 gives the maximum of about 1.
+     * @param temperature the temperature of the daisy
+     * @return the threshold
+     */
+    static double sproutThreshold(double temperature) {
+        return 0.1457 * temperature - 0.0032 * temperature * temperature - 0.6443;
+    }
+
+    /**
+     * Diffuse 50% of the temperature of every cell to its eight neighbors,
+     * as NetLogo's diffuse does: each neighbor gets 1/8 of the temperature
+     * diffused, and a cell with less than 8 neighbors keeps the leftover shares.
+     * <br><br>
+     * All shares are computed from the temperatures before the step, which are
+     * read from one buffer while the results are written into the other, so
+     * the result does not depend on the order the cells are visited in.
+     */
+    void diffuse() {
+        diffuse(0, xSize);
+        swapTemperature();
+    }
+
+    /**
+     * Write the diffused temperature of every cell in a range of rows into
+     * the scratch buffer, summing them up by cover for each row on the way.
+     * Ranges can be diffused in any order or concurrently; once all rows are
+     * done {@link #swapTemperature()} completes the step.
+     * @param fromRow the first row, inclusive
+     * @param toRow the last row, exclusive
+     */
+    void diffuse(int fromRow, int toRow) {
+        DoublePlane current = temperature;
+        DoublePlane next = nextTemperature;
+        double[] currentValues = current.array();
+        double[] nextValues = next.array();
+        boolean arrays = currentValues != null && nextValues != null;
+        for (int x = fromRow; x < toRow; x++) {
+            int above = neighborRow(x - 1);
+            int below = neighborRow(x + 1);
+            int row = x * ySize;
+            // the kernel takes the cells with all eight neighbors from the
+            // second column on, as far as it can
+            int done = !arrays || above < 0 || below < 0 ? 1
+                    : kernel.diffuse(currentValues, nextValues, row,
+                            above * ySize, below * ySize, 1, ySize - 1);
+            diffuse(current, next, x, above, below, 0);
+            for (int y = done; y < ySize; y++) {
+                diffuse(current, next, x, above, below, y);
+            }
+
+            int statistics = x * covers;
+            for (int c = 0; c < covers; c++) {
+                rowTemperatureSum[statistics + c] = 0;
+            }
+            for (int y = 0; y < ySize; y++) {
+                rowTemperatureSum[statistics + cover.get(row + y)] += next.get(row + y);
+            }
+        }
+    }
+
+    /**
+     * Write the diffused temperature of one cell into the scratch buffer
+     * @param current the temperatures before the step
+     * @param next the temperatures after the step
+     * @param x the row of the cell
+     * @param above the row above, or -1 if there is none
+     * @param below the row below, or -1 if there is none
+     * @param y the column of the cell
+     */
+    private void diffuse(DoublePlane current, DoublePlane next, int x, int above,
+                         int below, int y) {
+        int row = x * ySize;
+        int rows = 1 + (above < 0 ? 0 : 1) + (below < 0 ? 0 : 1);
+        int left = neighborColumn(y - 1);
+        int right = neighborColumn(y + 1);
+        int columns = 1 + (left < 0 ? 0 : 1) + (right < 0 ? 0 : 1);
+        int count = rows * columns - 1;
+
+        double neighborSum = rowSum(current, row, left, -1, right);
+        if (above >= 0) {
+            neighborSum += rowSum(current, above * ySize, left, y, right);
+        }
+        if (below >= 0) {
+            neighborSum += rowSum(current, below * ySize, left, y, right);
+        }
+
+        double share = current.get(row + y) * 0.5 / 8;
+        next.set(row + y, 0.5 * current.get(row + y) + (8 - count) * share
+                + neighborSum * 0.5 / 8);
+    }
+
+    /**
+     * Make the diffused temperatures current after all rows are diffused,
+     * and total the temperature sums of the rows
+     */
+    void swapTemperature() {
+        DoublePlane current = temperature;
+        temperature = nextTemperature;
+        nextTemperature = current;
+
+        for (int c = 0; c < covers; c++) {
+            double sum = 0;
+            for (int x = 0; x < xSize; x++) {
+                sum += rowTemperatureSum[x * covers + c];
+            }
+            temperatureSum[c] = sum;
+        }
+    }
+
+    /**
+     * Sum the temperatures of the left, middle and right cells of a row,
+     * skipping the columns that do not exist
+     */
+    private static double rowSum(DoublePlane temperature, int rowStart,
+                                 int left, int middle, int right) {
+        double sum = 0;
+        if (left >= 0) {
+            sum += temperature.get(rowStart + left);
+        }
+        if (middle >= 0) {
+            sum += temperature.get(rowStart + middle);
+        }
+        if (right >= 0) {
+            sum += temperature.get(rowStart + right);
+        }
+        return sum;
+    }
+
+    /**
+     * Diffuse 50% of the current temperature of a single cell to its eight
+     * neighbors in place. The neighbors are updated immediately, so applying
+     * this cell by cell depends on the visiting order; {@link #diffuse()} is
+     * the order-independent step used by the simulation.
+     * @param cell the cell id
+     */
+    void diffuse(int cell) {
+        double share = temperature.get(cell) * 0.5 / 8;
+        int count = neighborsOf(cell, neighborScratch);
+        for (int i = 0; i < count; i++) {
+            int neighbor = neighborScratch[i];
+            temperature.set(neighbor, temperature.get(neighbor) + share);
+            temperatureSum[cover.get(neighbor)] += share;
+        }
+        // the cell gives away a share to each of its neighbors
+        temperatureSum[cover.get(cell)] -= count * share;
+        if (count == 8) {
+            temperature.set(cell, temperature.get(cell) * 0.5);
+        } else {
+            temperature.set(cell, 0.5 * temperature.get(cell) + (8 - count) * share);
+        }
+    }
+
+    /**
+     * Check if the daisy on a cell reaches its max age,
+     * or dies from infection if the extension mode is on.<br><br>
+     *
+     * If either is true detach the daisy from the cell as its death
+     * <br><br>
+     * Else infect the surrounding neighbours if the extension mode is on,
+     *      followed by incrementing its age by 1 and
+     *      sprouting a new daisy with a probability.
+     * @param cell the cell id of the daisy
+     */
+    void checkSurvivability(int cell) {
+        if (age.get(cell) >= Params.MAX_AGE
+                || (params.EXTENSION && infected.is(cell) && !survivedInfection(cell))) {
+            removeDaisy(cell);
+            deaths++;
+        } else {
+
+            if (params.EXTENSION && infected.is(cell)) {
+                infectNeighbours(cell);
+            }
+            age.set(cell, (byte) (age.get(cell) + 1));
+            sprout(cell);
+        }
+    }
+
+    /**
+     * [Extension]:
+     * Check if the infected daisy can survive infection if it didn't recover.
+     * @param cell the cell id of the daisy
+     * @return false if the lethal rate is reached, otherwise true.
+     */
+    boolean survivedInfection(int cell) {
+        if (!recoveredFromInfection(cell)) {
+            double survivalPossibility = random.nextDouble();
+            return survivalPossibility >= params.DEATH_RATE;
+        }
+        return true;
+    }
+
+    /**
+     * [Extension]:
+     * Check if the infected daisy can recover depending on the recovery rate
+     * @param cell the cell id of the daisy
+     * @return true if the infected daisy recovers, otherwise false.
+     */
+    boolean recoveredFromInfection(int cell) {
+        double recoveryPossibility = random.nextDouble();
+        if (recoveryPossibility <= params.RECOVERY_RATE) {
+            setInfected(cell, false);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * [Extension]:
+     * Infect healthy neighbours of a daisy based on infectious threshold
+     * @param cell the cell id of the infected daisy
+     */
+    void infectNeighbours(int cell) {
+        int[] neighbors = neighborScratch;
+        int count = neighborsOf(cell, neighbors);
+
+        // calculate the probability of being infected for every healthy
+        // neighbour. if the infectious threshold is reached, it will be infected.
+        for (int i = 0; i < count; i++) {
+            int neighbor = neighbors[i];
+            if (cover.get(neighbor) != EMPTY && !infected.is(neighbor)) {
+                double infectiousPossibility = random.nextDouble();
+                if (infectiousPossibility <= params.INFECTION_RATE) {
+                    setInfected(neighbor, true);
+                    infections++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Sprout a new daisy of the same species as the one on a cell.
+     * The sprouting place is one of its neighbors that has no daisy inside.
+     * Only for the sequential demography, which keeps the bare neighbors.
+     * @param cell the cell id of the parent daisy
+     */
+    void sprout(int cell) {
+        double temperature = this.temperature.get(cell);
+
+        double sproutThreshold = sproutThreshold(temperature);
+
+        // Generate a possibility from 0 to 1
+        double sproutPossibility = random.nextDouble();
+
+        // If the possibility is within the threshold, sprout
+        if (sproutPossibility < sproutThreshold) {
+            int bare = bareNeighbors[cell] & 0xFF;
+
+            // If there is a seeding place available, start sprouting
+            if (bare != 0) {
+                // Randomly select one qualified neighbor as the sprouting
+                // place, the same one as in the list of neighbors
+                int placeIndex = random.nextInt(Integer.bitCount(bare));
+                for (; placeIndex > 0; placeIndex--) {
+                    bare &= bare - 1;
+                }
+                int neighbor = neighborIn(cell / ySize, cell % ySize,
+                        Integer.numberOfTrailingZeros(bare));
+                setCover(neighbor, cover.get(cell));
+                age.set(neighbor, (byte) 0);
+                births++;
+            }
+        }
+    }
+
+    /**
+     * Prepare the buffers of the synchronous demography
+     */
+    void enableSynchronousDemography() {
+        // its births write the covers directly and pick their places
+        // from the neighbors of every cell
+        bareNeighbors = null;
+        if (fate == null) {
+            fate = new byte[size];
+            infectionProposed = new boolean[size];
+            birthClaim = new int[size];
+            rowNeighbors = new int[xSize][MAX_NEIGHBORS];
+        }
+    }
+
+    /**
+     * First pass of the synchronous demography over a range of rows.<br><br>
+     *
+     * Every daisy decides from the state at the start of the step whether it
+     * dies, recovers, infects its healthy neighbours and sprouts, exactly as
+     * in {@link #checkSurvivability(int)}. Nothing but its own fate is
+     * written; infections and births are proposed to the neighbors instead.
+     * Concurrent proposals to the same empty cell are resolved with a
+     * compare-and-set keeping the daisy of highest random priority, so the
+     * outcome neither needs locks nor depends on the thread schedule.
+     * <br><br>
+     * Every draw comes from {@link CellRandom}, so the result is the same for
+     * a given seed no matter how the rows are split.
+     * @param fromRow the first row, inclusive
+     * @param toRow the last row, exclusive
+     * @param seed the seed of the simulation
+     * @param tick the current tick
+     */
+    void proposeDemography(int fromRow, int toRow, long seed, int tick) {
+        int[] neighbors = rowNeighbors[fromRow];
+        for (int cell = fromRow * ySize; cell < toRow * ySize; cell++) {
+            if (cover.get(cell) == EMPTY) {
+                continue;
+            }
+            int id = globalCell(cell);
+
+            boolean isInfected = infected.is(cell);
+            byte fate = 0;
+            if (params.EXTENSION && isInfected) {
+                if (CellRandom.nextDouble(seed, tick, id, RECOVERY_DRAW)
+                        <= params.RECOVERY_RATE) {
+                    fate = RECOVERS;
+                    isInfected = false;
+                } else if (CellRandom.nextDouble(seed, tick, id, DEATH_DRAW)
+                        < params.DEATH_RATE) {
+                    fate = DIES;
+                }
+            }
+            if (age.get(cell) >= Params.MAX_AGE) {
+                fate = DIES;
+            }
+            this.fate[cell] = fate;
+            if (fate == DIES) {
+                continue;
+            }
+
+            int count = neighborsOf(cell, neighbors);
+
+            if (params.EXTENSION && isInfected) {
+                for (int i = 0; i < count; i++) {
+                    int neighbor = neighbors[i];
+                    if (cover.get(neighbor) != EMPTY && !infected.is(neighbor)
+                            && CellRandom.nextDouble(seed, tick, id,
+                                INFECTION_DRAW + i) <= params.INFECTION_RATE) {
+                        infectionProposed[neighbor] = true;
+                    }
+                }
+            }
+
+            double temperature = this.temperature.get(cell);
+            double sproutThreshold = sproutThreshold(temperature);
+            if (CellRandom.nextDouble(seed, tick, id, SPROUT_DRAW)
+                    >= sproutThreshold) {
+                continue;
+            }
+
+            int emptyCount = 0;
+            for (int i = 0; i < count; i++) {
+                if (cover.get(neighbors[i]) == EMPTY) {
+                    neighbors[emptyCount++] = neighbors[i];
+                }
+            }
+            if (emptyCount > 0) {
+                int place = neighbors[CellRandom.nextInt(
+                        seed, tick, id, SPROUT_PLACE_DRAW, emptyCount)];
+                claimBirth(place, cell, seed, tick);
+            }
+        }
+    }
+
+    /**
+     * Claim an empty cell for the offspring of a daisy. The claim is kept if
+     * the daisy has a higher priority than the current holder, ties going to
+     * the lower cell id.
+     * @param place the empty cell
+     * @param parent the cell of the daisy
+     * @param seed the seed of the simulation
+     * @param tick the current tick
+     */
+    void claimBirth(int place, int parent, long seed, int tick) {
+        int parentId = globalCell(parent);
+        long priority = birthPriority(parentId, seed, tick);
+        while (true) {
+            int holder = (int) CLAIM.getVolatile(birthClaim, place);
+            if (holder != 0) {
+                int holderId = globalCell(holder - 1);
+                long holderPriority = birthPriority(holderId, seed, tick);
+                if (holderPriority > priority
+                        || (holderPriority == priority && holderId < parentId)) {
+                    return;
+                }
+            }
+            if (CLAIM.compareAndSet(birthClaim, place, holder, parent + 1)) {
+                return;
+            }
+        }
+    }
+
+    private static long birthPriority(int parent, long seed, int tick) {
+        return CellRandom.nextLong(seed, tick, parent, BIRTH_PRIORITY_DRAW) >>> 1;
+    }
+
+    /**
+     * Second pass of the synchronous demography over a range of rows, applying
+     * the fates, infections and births decided by
+     * {@link #proposeDemography(int, int, long, int)}. Each cell only writes
+     * its own state and clears its own proposals for the next step, while the
+     * statistics of each row are counted afresh for
+     * {@link #collectRowStatistics()}.
+     * @param fromRow the first row, inclusive
+     * @param toRow the last row, exclusive
+     */
+    void applyDemography(int fromRow, int toRow) {
+        for (int x = fromRow; x < toRow; x++) {
+            applyDemographyToRow(x);
+        }
+    }
+
+    private void applyDemographyToRow(int x) {
+        int statistics = x * covers;
+        for (int c = 0; c < covers; c++) {
+            rowPopulation[statistics + c] = 0;
+            rowInfectedPopulation[statistics + c] = 0;
+            rowTemperatureSum[statistics + c] = 0;
+        }
+        rowHealthy[x] = 0;
+        int born = 0;
+        int died = 0;
+        int infectedCount = 0;
+        for (int cell = x * ySize; cell < (x + 1) * ySize; cell++) {
+            if (cover.get(cell) != EMPTY) {
+                if (fate[cell] == DIES) {
+                    cover.set(cell, EMPTY);
+                    age.set(cell, (byte) 0);
+                    infected.set(cell, false);
+                    died++;
+                } else {
+                    if (fate[cell] == RECOVERS) {
+                        infected.set(cell, false);
+                    }
+                    if (infectionProposed[cell]) {
+                        infected.set(cell, true);
+                        infectedCount++;
+                    }
+                    age.set(cell, (byte) (age.get(cell) + 1));
+                }
+                fate[cell] = 0;
+            } else if (birthClaim[cell] != 0) {
+                // the parent survives the step, so its cover is not changing
+                cover.set(cell, cover.get(birthClaim[cell] - 1));
+                age.set(cell, (byte) 0);
+                infected.set(cell, false);
+                born++;
+            }
+            infectionProposed[cell] = false;
+            birthClaim[cell] = 0;
+
+            rowPopulation[statistics + cover.get(cell)]++;
+            if (infected.is(cell)) {
+                rowInfectedPopulation[statistics + cover.get(cell)]++;
+            } else if (cover.get(cell) != EMPTY) {
+                rowHealthy[x]++;
+            }
+            rowTemperatureSum[statistics + cover.get(cell)] += temperature.get(cell);
+        }
+        rowBirths[x] = born;
+        rowDeaths[x] = died;
+        rowInfections[x] = infectedCount;
+    }
+
+    /**
+     * Total the statistics of the rows counted by the synchronous demography
+     */
+    void collectRowStatistics() {
+        countRowEvents(0, xSize);
+        for (int c = 0; c < covers; c++) {
+            int count = 0;
+            int infectedCount = 0;
+            double sum = 0;
+            for (int x = 0; x < xSize; x++) {
+                count += rowPopulation[x * covers + c];
+                infectedCount += rowInfectedPopulation[x * covers + c];
+                sum += rowTemperatureSum[x * covers + c];
+            }
+            population[c] = count;
+            infectedPopulation[c] = infectedCount;
+            temperatureSum[c] = sum;
+        }
+    }
+
+    /**
+     * Get the daisy whose offspring claims a cell in the synchronous
+     * demography, used to hand the claims on a halo row to its owner
+     * @param cell the cell id
+     * @return the cell id of the daisy, or -1 if there is no claim
+     */
+    int birthClaim(int cell) {
+        return birthClaim[cell] - 1;
+    }
+
+    /**
+     * Check whether a daisy proposed to infect a cell in the synchronous
+     * demography
+     * @param cell the cell id
+     * @return true if the daisy on the cell is to be infected
+     */
+    boolean infectionProposed(int cell) {
+        return infectionProposed[cell];
+    }
+
+    /**
+     * Propose to infect the daisy on a cell in the synchronous demography
+     * @param cell the cell id
+     */
+    void proposeInfection(int cell) {
+        infectionProposed[cell] = true;
+    }
+
+    /**
+     * Withdraw the proposals made for a cell, once they are handed on
+     * @param cell the cell id
+     */
+    void clearProposals(int cell) {
+        infectionProposed[cell] = false;
+        birthClaim[cell] = 0;
+    }
+
+    /**
+     * Add the births, deaths and infections of the last synchronous step in
+     * some rows to the counts of the world
+     * @param fromRow the first row
+     * @param toRow the row after the last
+     */
+    void countRowEvents(int fromRow, int toRow) {
+        for (int x = fromRow; x < toRow; x++) {
+            births += rowBirths[x];
+            deaths += rowDeaths[x];
+            infections += rowInfections[x];
+        }
+    }
+
+    /**
+     * Copy the statistics of one row counted by the synchronous demography
+     * @param x the row
+     * @param population receives the number of daisies of each cover code
+     * @param infectedPopulation receives the infected daisies of each code
+     * @param temperatureSum receives the temperature sum of each code
+     * @return the number of healthy daisies of the row
+     */
+    int rowStatistics(int x, int[] population, int[] infectedPopulation,
+                      double[] temperatureSum) {
+        System.arraycopy(rowPopulation, x * covers, population, 0, covers);
+        System.arraycopy(rowInfectedPopulation, x * covers,
+                infectedPopulation, 0, covers);
+        System.arraycopy(rowTemperatureSum, x * covers,
+                temperatureSum, 0, covers);
+        return rowHealthy[x];
+    }
+
+    /**
+     * @param x the row
+     * @return the number of healthy daisies of the row
+     */
+    int healthyInRow(int x) {
+        return rowHealthy[x];
+    }
+}
@@ -0,0 +1,214 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+
+/**
+ * WorldMap keeps the state of a world in a memory-mapped file,
+ * "OUTPUT_NAME.world", which other processes map to read the world as the
+ * run goes, e.g. with numpy.memmap.
+ * <br><br>
+ * The file is the storage of the world: with WORLD_MAP on, the planes of
+ * {@link World} are views of the file, so the simulation works on the
+ * mapped pages and nothing is copied, and a world of hundreds of millions
+ * of cells is not held on the heap as well. Both temperature planes of the
+ * diffusion live in the file, and the header tells which one holds the
+ * temperatures of the last tick.
+ * <br><br>
+ * The file is little-endian and laid out as follows, for n = X_SIZE *
+ * Y_SIZE cells numbered x * Y_SIZE + y:
+ * <pre>
+ *   offset     type         value
+ *   0          int32        magic "DWMP", 0x504D5744
+ *   4          int32        version, 2
+ *   8          int64        sequence, odd while a tick changes the world
+ *   16         int32        tick, 0 for the initial state
+ *   20         int32        X_SIZE
+ *   24         int32        Y_SIZE
+ *   28         int32        the number of cover codes, species + 1
+ *   32         float64      solar luminosity
+ *   40         int32        the temperature plane of the tick, 0 or 1
+ *   44         20 bytes     reserved, 0
+ *   64         float64[n]   temperature plane 0
+ *   64 + 8n    float64[n]   temperature plane 1
+ *   64 + 16n   int8[n]      cover code, 0 bare, else the index of the
+ *                           species in SPECIES + 1
+ *   64 + 17n   int8[n]      age
+ *   64 + 18n   int8[n]      infected, 0 or 1
+ * </pre>
+ * The sequence is a sequence lock around the ticks: it is odd from the
+ * start of a tick until its end and even in between. A reader reads it,
+ * copies what it needs, and reads it again; the copy is the world at the
+ * end of one tick if both reads are the same even number, and a mix of
+ * two ticks otherwise. The header fields of the tick, the luminosity and
+ * the temperature plane are written at the end of the tick.
+ * <br><br>
+ * The file is mapped through the incubating Foreign Function & Memory
+ * API, foreign/ForeignWorldMap.java, when it is compiled and its module
+ * added:
+ * <pre>
+ *   javac --add-modules jdk.incubator.foreign -d out src/*.java foreign/*.java
+ *   java --add-modules jdk.incubator.foreign -cp out App
+ * </pre>
+ * and otherwise through the mapped byte buffers of {@link BufferWorldMap}.
+ * Both lay out the same file.
+ */
+public interface WorldMap {
+
+    int MAGIC = 0x504D5744;
+    int VERSION = 2;
+
+    // the offsets of the fields of the header
+    int SEQUENCE = 8;
+    int TICK = 16;
+    int X_SIZE = 20;
+    int Y_SIZE = 24;
+    int COVERS = 28;
+    int SOLAR_LUMINOSITY = 32;
+    int TEMPERATURE_PLANE = 40;
+    // the size of the header, and the offset of the temperatures
+    int HEADER = 64;
+
+    /**
+     * @param plane 0 or 1
+     * @return the temperature plane in the file
+     */
+    DoublePlane temperature(int plane);
+
+    /**
+     * @return the plane of the cover codes in the file
+     */
+    BytePlane cover();
+
+    /**
+     * @return the plane of the ages in the file
+     */
+    BytePlane age();
+
+    /**
+     * @return the plane of the infection flags in the file
+     */
+    BytePlane infected();
+
+    /**
+     * Mark the world as changing, before a tick changes its planes
+     */
+    void beginTick();
+
+    /**
+     * Write the header fields of a tick and mark the world as settled,
+     * after the tick is over
+     * @param world the world whose planes are the ones of this map
+     * @param tick the tick
+     */
+    void endTick(World world, int tick);
+
+    /**
+     * Write the file back and unmap it, which keeps the state of the last
+     * tick; the planes must not be used anymore
+     * @throws IOException if the file cannot be closed
+     */
+    void close() throws IOException;
+
+    /**
+     * @param cells the number of cells of the world
+     * @return the size of the file
+     */
+    static long size(int cells) {
+        return HEADER + 19L * cells;
+    }
+
+    /**
+     * @param cells the number of cells of the world
+     * @param plane 0 or 1
+     * @return the offset of a temperature plane
+     */
+    static long temperatureOffset(int cells, int plane) {
+        return HEADER + 8L * plane * cells;
+    }
+
+    /**
+     * @param cells the number of cells of the world
+     * @return the offset of the cover codes
+     */
+    static long coverOffset(int cells) {
+        return HEADER + 16L * cells;
+    }
+
+    /**
+     * @param cells the number of cells of the world
+     * @return the offset of the ages
+     */
+    static long ageOffset(int cells) {
+        return HEADER + 17L * cells;
+    }
+
+    /**
+     * @param cells the number of cells of the world
+     * @return the offset of the infection flags
+     */
+    static long infectedOffset(int cells) {
+        return HEADER + 18L * cells;
+    }
+
+    /**
+     * Get the file of the world map of a configuration
+     *
+     * @param params the configuration
+     * @return the file "OUTPUT_NAME.world"
+     */
+    static File defaultFile(Params params) {
+        return new File(params.outputName() + ".world");
+    }
+
+    /**
+     * Create the file of a world, replacing any file of that name, and map
+     * it through the Foreign Function & Memory API if it is available,
+     * otherwise through mapped byte buffers. The planes are all 0, and the
+     * sequence is odd until the end of the first tick.
+     * @param file the file
+     * @param params the configuration of the world
+     * @return the map
+     * @throws IOException if the file cannot be created or mapped
+     */
+    static WorldMap open(File file, Params params) throws IOException {
+        if (Loader.FOREIGN != null) {
+            try {
+                return (WorldMap) Loader.FOREIGN.newInstance(file, params);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException("Cannot map " + file, e.getCause());
+            } catch (ReflectiveOperationException e) {
+                throw new IOException("Cannot map " + file, e);
+            }
+        }
+        return new BufferWorldMap(file, params);
+    }
+
+    /**
+     * Holds the constructor of the foreign memory map, looked up on first
+     * use
+     */
+    final class Loader {
+        static final Constructor<?> FOREIGN;
+
+        static {
+            Constructor<?> foreign = null;
+            try {
+                if (ModuleLayer.boot().findModule("jdk.incubator.foreign")
+                        .isPresent()) {
+                    foreign = Class.forName("ForeignWorldMap")
+                            .getDeclaredConstructor(File.class, Params.class);
+                }
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // not compiled
+            }
+            FOREIGN = foreign;
+        }
+
+        private Loader() {
+        }
+    }
+}
@@ -1,60 +1,100 @@
-import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
 /**
- * WriterCSV contains static helper methods for outputting a csv file
+ * WriterCSV writes the per-tick records of a simulation to a csv file.
+ * <br><br>
+ * A row is formatted into a reused StringBuilder, which appends numbers
+ * without making strings, and its characters, all ASCII, are copied into a
+ * reused byte buffer, so writing a row allocates nothing.
  */
-public class WriterCSV {
+public class WriterCSV implements RecordWriter {
 
-    public static File daisyWorldCSV;
-    public static BufferedWriter bw;
+    private final File daisyWorldCSV;
+    private final FileOutputStream stream;
+    private final Metrics metrics;
+    private final String newLine = System.lineSeparator();
+    private final StringBuilder row = new StringBuilder(256);
+    private final byte[] buffer = new byte[1 << 16];
+    private int buffered;
+    private long bytesWritten;
 
     /**
      * Initialize the csv file and its header
      *
+     * @param daisyWorldCSV the csv file to be written
+     * @param metrics the layout of the records
      * @throws IOException if file initialization fails
      */
-    public static void initCSV() throws IOException {
-        if (Params.EXTENSION) {
-            daisyWorldCSV = new File("daisyworld-ext-"+Params.MODE+".csv");
-        }
-        else {
-            daisyWorldCSV = new File("daisyworld-"+Params.MODE+".csv");
-        }
-        
-        bw = new BufferedWriter(new FileWriter(daisyWorldCSV, false));
-        bw.write("tick" + "," +
-                "number_of_whites" + "," +
-                "local_temp_avg_whites" + "," +
-                "infected_whites" + "," +
-                "number_of_blacks" + "," +
-                "local_temp_avg_blacks" + "," +
-                "infected_blacks" + "," +
-                "global_population" + "," +
-                "global_temperature"
-        );
-        bw.newLine();
+    public WriterCSV(File daisyWorldCSV, Metrics metrics) throws IOException {
+        this.daisyWorldCSV = daisyWorldCSV;
+        this.metrics = metrics;
+        stream = new FileOutputStream(daisyWorldCSV, false);
+        byte[] header = (String.join(",", metrics.columnNames()) + newLine)
+                .getBytes();
+        stream.write(header);
+        bytesWritten = header.length;
     }
 
     /**
-     * Write values for each tick to "daisyworld.csv"
+     * Get the csv file named after the output name of a configuration
      *
+     * @param params the configuration
+     * @return the file "OUTPUT_NAME.csv"
+     */
+    public static File defaultFile(Params params) {
+        return new File(params.outputName() + ".csv");
+    }
+
+    /**
+     * Write the values of one tick as a row
+     *
+     * @param record the buffer holding the record
+     * @param offset the index of the first value of the record
      * @throws IOException if an I/O error occurs
      */
-    public static void writeToCSV(String[] data) throws IOException {
-        bw.write(Stream.of(data).collect(Collectors.joining(",")));
-        bw.newLine();
+    @Override
+    public void write(double[] record, int offset) throws IOException {
+        row.setLength(0);
+        for (int column = 0; column < metrics.WIDTH; column++) {
+            if (column > 0) {
+                row.append(',');
+            }
+            metrics.append(row, record, offset, column);
+        }
+        row.append(newLine);
+
+        int length = row.length();
+        if (buffered + length > buffer.length) {
+            flush();
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[buffered++] = (byte) row.charAt(i);
+        }
+        bytesWritten += length;
+    }
+
+    private void flush() throws IOException {
+        stream.write(buffer, 0, buffered);
+        buffered = 0;
+    }
+
+    @Override
+    public long bytesWritten() {
+        return bytesWritten;
+    }
+
+    public File getFile() {
+        return daisyWorldCSV;
     }
 
     /**
      * Flush the stream and close the stream
      */
-    public static void flushAndClose() throws IOException {
-        bw.flush();
-        bw.close();
+    @Override
+    public void close() throws IOException {
+        flush();
+        stream.close();
     }
-}
\ No newline at end of file
+}